@@ -0,0 +1,466 @@
+package lander;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lander.controller.ControllerException;
+import lander.controller.ControllerFactory;
+import lander.controller.PiraveenController;
+import planet.ArrayTurbulenceTape;
+import planet.Planet;
+
+/**
+   Looks for the turbulence that does a controller the most harm.
+
+   The turbulence is the same kind of walk the planet makes, but instead
+   of random steps each one is chosen, within the same bounds: up to the
+   planet's turbulence sideways and a tenth of it vertically. To keep the
+   search small the descent is cut into segments and the step is held
+   for the whole of a segment.
+
+   The search is the cross-entropy method. Each iteration draws a
+   population of step sequences from independent normal distributions,
+   flies them all, and moves the distributions towards the worst tenth.
+   Where runs are equally bad, the one with the smaller steps counts as
+   worse, since it is the more believable gust. Runs are flown in
+   parallel, each thread with its own planet, lander and controller.
+
+   The worst sequences found are kept as tapes, which can be saved and
+   flown again with Planet.setTurbulenceTape.
+*/
+public class AdversarialTurbulenceSearch
+{
+    private Planet planet;
+    private LanderSpecs specs;
+    private ControllerFactory factory;
+    private int segments;
+    private int segmentSteps;
+    private int threads;
+
+    private int population = 100;
+    private double eliteFraction = 0.1;
+    private double smoothing = 0.7;
+    private double bound = 1.0;
+    private long seed = 0;
+
+    private ArrayTurbulenceTape[] worstTapes;
+    private double[] worstFitness;
+    private double[] worstSize;
+    private double[] bestPerIteration;
+
+    /**
+     * Search for the worst turbulence for the Piraveen controller on Mars
+     *
+     * @param args -i 30 iterations, -p 100 runs per iteration, -k 40 segments,
+     *             -b 0.5 to allow only half the planet's turbulence, -w 5 tapes to keep,
+     *             -o dir to save them in, -s 1 to seed the search
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int iterations = 30;
+        int population = 100;
+        int segments = 40;
+        double bound = 1.0;
+        int keep = 5;
+        File output = new File("tapes");
+        long seed = 1;
+        int i = 0;
+        while(i < args.length)
+        {
+            if(args[i].equalsIgnoreCase("-i"))
+            {
+                iterations = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-p"))
+            {
+                population = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-k"))
+            {
+                segments = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-b"))
+            {
+                bound = Double.parseDouble(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-w"))
+            {
+                keep = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-o"))
+            {
+                output = new File(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-s"))
+            {
+                seed = Long.parseLong(args[++i]);
+            }
+            i++;
+        }
+
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+
+        // long enough for a calm descent with some to spare - after that the last gust is held
+        int steps = 3*stepsToLand(mars, specs, PiraveenController.FACTORY)/2;
+        AdversarialTurbulenceSearch search = new AdversarialTurbulenceSearch(mars, specs,
+                PiraveenController.FACTORY, segments, (steps + segments - 1)/segments,
+                Runtime.getRuntime().availableProcessors());
+        search.setPopulation(population);
+        search.setBound(bound);
+        search.setSeed(seed);
+
+        long start = System.currentTimeMillis();
+        search.run(iterations, keep);
+        long elapsed = System.currentTimeMillis() - start;
+
+        double[] best = search.getBestPerIteration();
+        for(int it = 0; it < best.length; it++)
+        {
+            System.out.println("Iteration " + it + ": worst fitness " + best[it]);
+        }
+        System.out.println(iterations + " iterations x " + population + " runs in " + elapsed + " ms");
+
+        output.mkdirs();
+        ArrayTurbulenceTape[] tapes = search.getWorstTapes();
+        for(int t = 0; t < tapes.length; t++)
+        {
+            File file = new File(output, "worst-" + t + ".tape");
+            tapes[t].save(file);
+            System.out.println(file + ": fitness " + search.getWorstFitness()[t]);
+        }
+    }
+
+    /**
+     * Count the control steps a lander takes to come down through still air
+     *
+     * @param planet - the planet - its turbulence is ignored
+     * @param specs - specifications of the lander
+     * @param factory - makes the controller
+     * @return the number of steps
+     * @throws ControllerException
+     */
+    public static int stepsToLand(Planet planet, LanderSpecs specs, ControllerFactory factory)
+            throws ControllerException
+    {
+        Planet calm = new Planet(planet.getGravity(), planet.getViscocity(), 0.0);
+        Lander lander = new Lander(calm, factory.create(calm, specs), specs, 0);
+        lander.reset();
+        int steps = 1;
+        while(lander.step())
+        {
+            steps++;
+        }
+        return steps;
+    }
+
+    /**
+     * Create a search
+     *
+     * @param planet - the planet - its turbulence sets the bounds on the steps
+     * @param specs - specifications of the lander
+     * @param factory - makes a controller for each thread
+     * @param segments - number of segments the descent is cut into
+     * @param segmentSteps - turbulence steps in each segment
+     * @param threads - number of threads
+     */
+    public AdversarialTurbulenceSearch(Planet planet, LanderSpecs specs, ControllerFactory factory,
+            int segments, int segmentSteps, int threads)
+    {
+        if(segments < 1 || segmentSteps < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one segment, step and thread");
+        }
+        this.planet = planet;
+        this.specs = specs;
+        this.factory = factory;
+        this.segments = segments;
+        this.segmentSteps = segmentSteps;
+        this.threads = threads;
+    }
+
+    public void setPopulation(int population)
+    {
+        this.population = population;
+    }
+
+    public void setEliteFraction(double eliteFraction)
+    {
+        this.eliteFraction = eliteFraction;
+    }
+
+    /**
+     * @param smoothing - how far the distributions move towards the elite each iteration, from 0 to 1
+     */
+    public void setSmoothing(double smoothing)
+    {
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * @param bound - largest step as a fraction of the planet's turbulence
+     */
+    public void setBound(double bound)
+    {
+        this.bound = bound;
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the worst tapes of the last run, worst first
+     */
+    public ArrayTurbulenceTape[] getWorstTapes()
+    {
+        return worstTapes;
+    }
+
+    /**
+     * @return fitness with each of the worst tapes
+     */
+    public double[] getWorstFitness()
+    {
+        return worstFitness;
+    }
+
+    /**
+     * @return the lowest fitness found in each iteration of the last run
+     */
+    public double[] getBestPerIteration()
+    {
+        return bestPerIteration;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Run the search
+     *
+     * @param iterations - number of iterations
+     * @param keep - number of worst tapes to keep
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public void run(int iterations, int keep) throws ControllerException, InterruptedException
+    {
+        int elite = Math.max(1, (int)Math.round(eliteFraction*population));
+        if(population < 1 || elite > population || keep < 1)
+        {
+            throw new IllegalArgumentException("need at least one run, elite run and tape to keep");
+        }
+
+        // the first half of the parameters are the sideways steps, the second half the vertical ones
+        final int dimensions = 2*segments;
+        double[] limit = new double[dimensions];
+        for(int d = 0; d < dimensions; d++)
+        {
+            limit[d] = (d < segments ? 1.0 : 0.1)*bound*planet.getTurbulence();
+        }
+        double[] mean = new double[dimensions];
+        double[] sd = limit.clone();
+
+        final double[][] samples = new double[population][dimensions];
+        final double[] fitness = new double[population];
+        final double[] size = new double[population];
+        Integer[] order = new Integer[population];
+
+        worstTapes = new ArrayTurbulenceTape[0];
+        worstFitness = new double[0];
+        worstSize = new double[0];
+        bestPerIteration = new double[iterations];
+
+        final Lander[] landers = new Lander[threads];
+        for(int t = 0; t < threads; t++)
+        {
+            Planet own = new Planet(planet.getGravity(), planet.getViscocity(), planet.getTurbulence());
+            landers[t] = new Lander(own, factory.create(own, specs), specs, 0);
+        }
+
+        Random random = new Random(seed);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for(int it = 0; it < iterations; it++)
+            {
+                for(int p = 0; p < population; p++)
+                {
+                    size[p] = 0.0;
+                    for(int d = 0; d < dimensions; d++)
+                    {
+                        double x = mean[d] + sd[d]*random.nextGaussian();
+                        samples[p][d] = Math.max(-limit[d], Math.min(limit[d], x));
+                        size[p] += limit[d] > 0.0 ? Math.abs(samples[p][d])/limit[d] : 0.0;
+                    }
+                }
+
+                final AtomicInteger next = new AtomicInteger(0);
+                List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+                for(int t = 0; t < threads; t++)
+                {
+                    final Lander lander = landers[t];
+                    workers.add(new Callable<Void>()
+                    {
+                        public Void call() throws ControllerException
+                        {
+                            for(int p = next.getAndIncrement(); p < population; p = next.getAndIncrement())
+                            {
+                                fitness[p] = fly(lander, tape(samples[p]));
+                            }
+                            return null;
+                        }
+                    });
+                }
+                invokeAll(pool, workers);
+
+                rank(order, fitness, size);
+                bestPerIteration[it] = fitness[order[0]];
+                for(int r = 0; r < keep && r < population; r++)
+                {
+                    remember(keep, tape(samples[order[r]]), fitness[order[r]], size[order[r]]);
+                }
+
+                for(int d = 0; d < dimensions; d++)
+                {
+                    double sum = 0.0;
+                    for(int e = 0; e < elite; e++)
+                    {
+                        sum += samples[order[e]][d];
+                    }
+                    double eliteMean = sum/elite;
+                    double squares = 0.0;
+                    for(int e = 0; e < elite; e++)
+                    {
+                        double diff = samples[order[e]][d] - eliteMean;
+                        squares += diff*diff;
+                    }
+                    mean[d] = smoothing*eliteMean + (1.0 - smoothing)*mean[d];
+                    sd[d] = smoothing*Math.sqrt(squares/elite) + (1.0 - smoothing)*sd[d];
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static void invokeAll(ExecutorService pool, List<Callable<Void>> workers)
+            throws ControllerException, InterruptedException
+    {
+        try
+        {
+            for(Future<Void> f: pool.invokeAll(workers))
+            {
+                f.get();
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Turn a set of segment steps into a tape by walking them out
+     */
+    private ArrayTurbulenceTape tape(double[] sample)
+    {
+        int length = segments*segmentSteps;
+        float[] x = new float[length];
+        float[] y = new float[length];
+        double impulseX = 0.0;
+        double impulseY = 0.0;
+        for(int step = 0; step < length; step++)
+        {
+            int segment = step/segmentSteps;
+            impulseX += sample[segment];
+            impulseY += sample[segments + segment];
+            x[step] = (float)impulseX;
+            y[step] = (float)impulseY;
+        }
+        return new ArrayTurbulenceTape(x, y);
+    }
+
+    private double fly(Lander lander, ArrayTurbulenceTape tape) throws ControllerException
+    {
+        lander.getPlanet().setTurbulenceTape(tape);
+        lander.reset();
+        while(lander.step())
+        {
+        }
+        return lander.getFitness();
+    }
+
+    /**
+     * Worst first - lowest fitness, then smallest steps
+     */
+    private static void rank(Integer[] order, final double[] fitness, final double[] size)
+    {
+        for(int p = 0; p < order.length; p++)
+        {
+            order[p] = p;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int c = Double.compare(fitness[a], fitness[b]);
+                return c != 0 ? c : Double.compare(size[a], size[b]);
+            }
+        });
+    }
+
+    /**
+     * Add a tape to the worst ones kept, if it is bad enough
+     */
+    private void remember(int keep, ArrayTurbulenceTape tape, double fitness, double size)
+    {
+        int at = worstTapes.length;
+        while(at > 0 && (fitness < worstFitness[at-1] ||
+                (fitness == worstFitness[at-1] && size < worstSize[at-1])))
+        {
+            at--;
+        }
+        if(at >= keep)
+        {
+            return;
+        }
+
+        int length = Math.min(keep, worstTapes.length + 1);
+        ArrayTurbulenceTape[] tapes = new ArrayTurbulenceTape[length];
+        double[] fitnesses = new double[length];
+        double[] sizes = new double[length];
+        for(int i = 0, j = 0; i < length; i++)
+        {
+            if(i == at)
+            {
+                tapes[i] = tape;
+                fitnesses[i] = fitness;
+                sizes[i] = size;
+            }
+            else
+            {
+                tapes[i] = worstTapes[j];
+                fitnesses[i] = worstFitness[j];
+                sizes[i] = worstSize[j];
+                j++;
+            }
+        }
+        worstTapes = tapes;
+        worstFitness = fitnesses;
+        worstSize = sizes;
+    }
+}
@@ -0,0 +1,457 @@
+package lander;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lander.controller.Controller;
+import lander.controller.ControllerException;
+import lander.controller.ControllerFactory;
+import lander.controller.PiraveenController;
+import planet.Planet;
+
+/**
+   Tries many landers on many planets to see which designs are worth having.
+
+   Each point of a design sets the lander's empty mass, fuel capacity, burn
+   rate, maximum thrust and radius and the planet's gravity, viscosity and
+   turbulence. Every configuration is flown a fixed number of times from the
+   normal start and scored by average fitness and crash rate. Run n of every
+   configuration uses the same turbulence seed, so differences between
+   configurations are not swamped by luck.
+
+   Configurations are shared out between threads. A controller only sees the
+   specs and planet through its scaling (start height, terminal velocity,
+   safe landing speed, fuel capacity and maximum thrust), so each thread
+   keeps the controllers it has made keyed on those and reuses one whenever
+   another configuration scales the same way.
+
+   The Pareto front keeps the configurations that no other configuration
+   beats on fitness without also needing more fuel or more mass.
+*/
+public class DesignSpaceExplorer
+{
+    public static final String[] PARAMETERS = {"emptyMass", "fuelCapacity", "burnRate", "maxThrust", "radius",
+            "gravity", "viscocity", "turbulence"};
+
+    // controllers each thread keeps before forgetting the oldest
+    private static final int CONTROLLER_CACHE = 256;
+
+    private LanderSpecs baseSpecs;
+    private ControllerFactory factory;
+    private int reps;
+    private int threads;
+    private long seed = 0;
+
+    private double[] fitness;
+    private double[] crashRate;
+    private int controllersMade;
+
+    /**
+     * Explore designs around the Mars lander on Mars
+     *
+     * @param args -n 500 for a Latin hypercube of 500 configurations, or -g 3 for a grid of 3 values per parameter,
+     *             -r 10 runs per configuration, -s 1 to seed the design and turbulence, -o file.csv for the results
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int samples = 500;
+        int gridPoints = 0;
+        int reps = 10;
+        long seed = 1;
+        File output = new File("designs.csv");
+        int i = 0;
+        while(i < args.length)
+        {
+            if(args[i].equalsIgnoreCase("-n"))
+            {
+                samples = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-g"))
+            {
+                gridPoints = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-r"))
+            {
+                reps = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-s"))
+            {
+                seed = Long.parseLong(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-o"))
+            {
+                output = new File(args[++i]);
+            }
+            i++;
+        }
+
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        double[] base = {specs.getEmptyMass(), specs.getFuelCapacity(), specs.getBurnRate(), specs.getMaxThrust(),
+                specs.getRadius(), mars.getGravity(), mars.getViscocity(), mars.getTurbulence()};
+        double[] min = new double[base.length];
+        double[] max = new double[base.length];
+        for(int d = 0; d < base.length; d++)
+        {
+            min[d] = 0.5*base[d];
+            max[d] = 1.5*base[d];
+        }
+
+        double[][] design;
+        if(gridPoints > 0)
+        {
+            int[] points = new int[min.length];
+            Arrays.fill(points, gridPoints);
+            design = ExperimentDesign.grid(min, max, points);
+        }
+        else
+        {
+            design = ExperimentDesign.latinHypercube(min, max, samples, new Random(seed));
+        }
+
+        DesignSpaceExplorer explorer = new DesignSpaceExplorer(specs, PiraveenController.FACTORY, reps,
+                Runtime.getRuntime().availableProcessors());
+        explorer.setSeed(seed);
+
+        long start = System.currentTimeMillis();
+        explorer.run(design);
+        long elapsed = System.currentTimeMillis() - start;
+        int[] front = explorer.paretoFront(design);
+        explorer.write(output, design, front);
+
+        System.out.println(design.length + " configurations x " + reps + " runs in " + elapsed + " ms, " +
+                explorer.getControllersMade() + " controllers made");
+        System.out.println(front.length + " configurations on the Pareto front:");
+        for(int p: front)
+        {
+            System.out.println(String.format("  fitness %6.2f  crash rate %4.2f  fuel %7.1f kg  mass %7.1f kg",
+                    explorer.getFitness()[p], explorer.getCrashRate()[p], design[p][1], design[p][0] + design[p][1]));
+        }
+        System.out.println("Results written to " + output);
+    }
+
+    /**
+     * Create an explorer
+     *
+     * @param baseSpecs - the start height and safe landing speed come from here
+     * @param factory - makes controllers
+     * @param reps - runs per configuration
+     * @param threads - number of threads
+     */
+    public DesignSpaceExplorer(LanderSpecs baseSpecs, ControllerFactory factory, int reps, int threads)
+    {
+        if(reps < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one run and one thread");
+        }
+        this.baseSpecs = baseSpecs;
+        this.factory = factory;
+        this.reps = reps;
+        this.threads = threads;
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return average fitness of each configuration in the last run
+     */
+    public double[] getFitness()
+    {
+        return fitness;
+    }
+
+    /**
+     * @return fraction of crashed runs for each configuration in the last run
+     */
+    public double[] getCrashRate()
+    {
+        return crashRate;
+    }
+
+    /**
+     * @return controllers made in the last run - the rest were reused
+     */
+    public int getControllersMade()
+    {
+        return controllersMade;
+    }
+
+    /**
+     * The specs for one point of a design
+     *
+     * @param point - a row with one value for each of PARAMETERS
+     * @return the specs
+     */
+    public LanderSpecs specs(double[] point)
+    {
+        return new LanderSpecs(point[0], point[1], point[2], point[3], point[4],
+                baseSpecs.getStartHeight(), baseSpecs.getSafeLandingSpeed());
+    }
+
+    /**
+     * The planet for one point of a design
+     *
+     * @param point - a row with one value for each of PARAMETERS
+     * @return the planet
+     */
+    public static Planet planet(double[] point)
+    {
+        return new Planet(point[5], point[6], point[7]);
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Fly every configuration of a design
+     *
+     * @param design - one row per configuration, with a column for each of PARAMETERS
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public void run(final double[][] design) throws ControllerException, InterruptedException
+    {
+        for(double[] point: design)
+        {
+            if(point.length != PARAMETERS.length)
+            {
+                throw new IllegalArgumentException("each point needs " + PARAMETERS.length + " values");
+            }
+        }
+
+        fitness = new double[design.length];
+        crashRate = new double[design.length];
+
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger made = new AtomicInteger(0);
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for(int t = 0; t < threads; t++)
+        {
+            workers.add(new Callable<Void>()
+            {
+                public Void call() throws ControllerException
+                {
+                    Map<Scaling, Controller> controllers = new LinkedHashMap<Scaling, Controller>(16, 0.75f, true)
+                    {
+                        protected boolean removeEldestEntry(Map.Entry<Scaling, Controller> eldest)
+                        {
+                            return size() > CONTROLLER_CACHE;
+                        }
+                    };
+                    for(int p = next.getAndIncrement(); p < design.length; p = next.getAndIncrement())
+                    {
+                        LanderSpecs specs = specs(design[p]);
+                        Planet planet = planet(design[p]);
+                        Scaling key = new Scaling(planet, specs);
+                        Controller controller = controllers.get(key);
+                        if(controller == null)
+                        {
+                            controller = factory.create(planet, specs);
+                            controllers.put(key, controller);
+                            made.incrementAndGet();
+                        }
+                        fly(new Lander(planet, controller, specs, 0), planet, p);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for(Future<Void> f: pool.invokeAll(workers))
+            {
+                f.get();
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+            controllersMade = made.get();
+        }
+    }
+
+    private void fly(Lander lander, Planet planet, int p) throws ControllerException
+    {
+        double total = 0.0;
+        int crashes = 0;
+        for(int rep = 0; rep < reps; rep++)
+        {
+            lander.reset();
+            planet.setSeed(seed ^ rep*0x9E3779B97F4A7C15L);
+            while(lander.step())
+            {
+            }
+            total += lander.getFitness();
+            if(lander.hasCrashed()) crashes++;
+        }
+        fitness[p] = total/reps;
+        crashRate[p] = (double)crashes/reps;
+    }
+
+    /**
+     * Find the configurations of the last run that nothing else beats on
+     * fitness, fuel capacity and total mass together.
+     *
+     * Sorting by fitness, best first, means a configuration can only be
+     * beaten by one before it. Those already on the front are kept in a map
+     * from fuel to mass in which mass falls as fuel rises, so the entry with
+     * the most fuel not above this configuration's has the least mass of any
+     * that could beat it.
+     *
+     * @param design - the design that was run
+     * @return indexes of the configurations on the front, best fitness first
+     */
+    public int[] paretoFront(final double[][] design)
+    {
+        Integer[] order = new Integer[design.length];
+        for(int p = 0; p < order.length; p++)
+        {
+            order[p] = p;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                int c = Double.compare(fitness[b], fitness[a]);
+                if(c == 0) c = Double.compare(design[a][1], design[b][1]);
+                if(c == 0) c = Double.compare(mass(design[a]), mass(design[b]));
+                return c;
+            }
+        });
+
+        TreeMap<Double, Double> staircase = new TreeMap<Double, Double>();
+        List<Integer> front = new ArrayList<Integer>();
+        for(int p: order)
+        {
+            double fuel = design[p][1];
+            double mass = mass(design[p]);
+            Map.Entry<Double, Double> below = staircase.floorEntry(fuel);
+            if(below != null && below.getValue() <= mass)
+            {
+                continue;
+            }
+
+            // anything with at least as much fuel and mass no longer matters
+            Iterator<Map.Entry<Double, Double>> above = staircase.tailMap(fuel, true).entrySet().iterator();
+            while(above.hasNext() && above.next().getValue() >= mass)
+            {
+                above.remove();
+            }
+            staircase.put(fuel, mass);
+            front.add(p);
+        }
+
+        int[] result = new int[front.size()];
+        for(int i = 0; i < result.length; i++)
+        {
+            result[i] = front.get(i);
+        }
+        return result;
+    }
+
+    private static double mass(double[] point)
+    {
+        return point[0] + point[1];
+    }
+
+    /**
+     * Write the results of the last run as CSV, one line per configuration
+     *
+     * @param file - where to write it
+     * @param design - the design that was run
+     * @param front - the Pareto front, as from paretoFront
+     * @throws IOException
+     */
+    public void write(File file, double[][] design, int[] front) throws IOException
+    {
+        boolean[] onFront = new boolean[design.length];
+        for(int p: front)
+        {
+            onFront[p] = true;
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try
+        {
+            for(String parameter: PARAMETERS)
+            {
+                out.print(parameter);
+                out.print(',');
+            }
+            out.println("fitness,crashRate,pareto");
+            for(int p = 0; p < design.length; p++)
+            {
+                for(double value: design[p])
+                {
+                    out.print((float)value);
+                    out.print(',');
+                }
+                out.print((float)fitness[p]);
+                out.print(',');
+                out.print((float)crashRate[p]);
+                out.print(',');
+                out.println(onFront[p] ? 1 : 0);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * The figures a controller is scaled by - two configurations with the
+     * same scaling can share a controller
+     */
+    private static class Scaling
+    {
+        private double startHeight;
+        private double terminalVelocity;
+        private double safeLandingSpeed;
+        private double fuelCapacity;
+        private double maxThrust;
+
+        Scaling(Planet planet, LanderSpecs specs)
+        {
+            startHeight = specs.getStartHeight();
+            terminalVelocity = Lander.terminalVelocity(planet, specs);
+            safeLandingSpeed = specs.getSafeLandingSpeed();
+            fuelCapacity = specs.getFuelCapacity();
+            maxThrust = specs.getMaxThrust();
+        }
+
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Scaling))
+            {
+                return false;
+            }
+            Scaling s = (Scaling)o;
+            return startHeight == s.startHeight && terminalVelocity == s.terminalVelocity &&
+                    safeLandingSpeed == s.safeLandingSpeed && fuelCapacity == s.fuelCapacity &&
+                    maxThrust == s.maxThrust;
+        }
+
+        public int hashCode()
+        {
+            return Arrays.hashCode(new double[] {startHeight, terminalVelocity, safeLandingSpeed,
+                    fuelCapacity, maxThrust});
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package lander;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+   One recorded flight - the lander's state at the start and after every
+   step - for looking at again without flying it again.
+
+   A file of episodes, as written by EpisodeRecorder, is a header of magic
+   and version followed by the episodes one after another, each a step
+   count and then that many states of FIELDS floats, in the order of
+   LanderState's constructor with landed as 0 or 1.
+*/
+public class Episode
+{
+    public static final int MAGIC = 0x45505331; // "EPS1"
+    public static final int VERSION = 1;
+    public static final int FIELDS = 13;
+
+    private float[] data;
+    private int length;
+
+    /**
+     * Load every episode in a file
+     *
+     * @param file - the file
+     * @return the episodes, in the order they were recorded
+     * @throws IOException
+     */
+    public static List<Episode> load(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try
+        {
+            if(in.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not an episode file");
+            }
+            int version = in.readInt();
+            if(version != VERSION)
+            {
+                throw new IOException(file + " is version " + version + ", expected " + VERSION);
+            }
+
+            List<Episode> episodes = new ArrayList<Episode>();
+            while(true)
+            {
+                int length;
+                try
+                {
+                    length = in.readInt();
+                }
+                catch(EOFException eof)
+                {
+                    break;
+                }
+                if(length < 1 || length > Integer.MAX_VALUE/FIELDS)
+                {
+                    throw new IOException(file + " has an episode of bad length " + length);
+                }
+                float[] data = new float[length*FIELDS];
+                for(int i = 0; i < data.length; i++)
+                {
+                    data[i] = in.readFloat();
+                }
+                episodes.add(new Episode(data));
+            }
+            return episodes;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Create an episode
+     *
+     * @param data - FIELDS floats for each state, as in a file
+     */
+    public Episode(float[] data)
+    {
+        if(data.length == 0 || data.length%FIELDS != 0)
+        {
+            throw new IllegalArgumentException("need a whole number of states");
+        }
+        this.data = data.clone();
+        this.length = data.length/FIELDS;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * @return number of states
+     */
+    public int getLength()
+    {
+        return length;
+    }
+
+    /**
+     * @return seconds from the first state to the last
+     */
+    public double getDuration()
+    {
+        return getTime(length - 1) - getTime(0);
+    }
+
+    public double getTime(int step)
+    {
+        return data[step*FIELDS];
+    }
+
+    public double getHeight(int step)
+    {
+        return data[step*FIELDS + 1];
+    }
+
+    public double getLocation(int step)
+    {
+        return data[step*FIELDS + 3];
+    }
+
+    /**
+     * @param step - from 0
+     * @return the state recorded then
+     */
+    public LanderState getState(int step)
+    {
+        int i = step*FIELDS;
+        return new LanderState(data[i], data[i+1], data[i+2], data[i+3], data[i+4], data[i+5], data[i+6],
+                data[i+7], data[i+8], data[i+9], data[i+10], data[i+11], data[i+12] != 0.0f);
+    }
+
+    /**
+     * The state at any moment, between the recorded ones if need be
+     *
+     * @param time - seconds, as recorded - before the first state or after the last gives that state
+     * @return the state
+     */
+    public LanderState getStateAt(double time)
+    {
+        // last state at or before the time
+        int low = 0;
+        int high = length - 1;
+        if(time <= getTime(low))
+        {
+            return getState(low);
+        }
+        if(time >= getTime(high))
+        {
+            return getState(high);
+        }
+        while(high - low > 1)
+        {
+            int middle = (low + high) >>> 1;
+            if(getTime(middle) <= time)
+            {
+                low = middle;
+            }
+            else
+            {
+                high = middle;
+            }
+        }
+        double span = getTime(high) - getTime(low);
+        return LanderState.interpolate(getState(low), getState(high), span > 0.0 ? (time - getTime(low))/span : 1.0);
+    }
+}
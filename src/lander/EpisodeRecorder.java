@@ -0,0 +1,110 @@
+package lander;
+
+import java.io.*;
+
+/**
+   Watches a lander and writes each flight to a file of episodes as soon as
+   it lands, so any number of flights can be recorded without holding them
+   in memory.
+
+   Call begin after resetting the lander, so the episode starts from where
+   the lander starts, and close when done.
+*/
+public class EpisodeRecorder implements LanderObserver
+{
+    private Lander lander;
+    private DataOutputStream out;
+
+    private float[] buffer = new float[512*Episode.FIELDS];
+    private int size = 0;
+    private int episodes = 0;
+
+    /**
+     * Create a recorder and start the file
+     *
+     * @param lander - the lander to watch - the recorder adds itself as an observer
+     * @param file - where to write the episodes
+     * @throws IOException
+     */
+    public EpisodeRecorder(Lander lander, File file) throws IOException
+    {
+        this.lander = lander;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(Episode.MAGIC);
+        out.writeInt(Episode.VERSION);
+        lander.addObserver(this);
+    }
+
+    /**
+     * Start a new episode from the lander's state now, dropping any episode
+     * that was not finished
+     */
+    public void begin()
+    {
+        size = 0;
+        add(lander.getState());
+    }
+
+    public void update(boolean finished)
+    {
+        add(lander.getState());
+        if(finished)
+        {
+            try
+            {
+                out.writeInt(size/Episode.FIELDS);
+                for(int i = 0; i < size; i++)
+                {
+                    out.writeFloat(buffer[i]);
+                }
+            }
+            catch(IOException e)
+            {
+                throw new IllegalStateException("could not record episode", e);
+            }
+            size = 0;
+            episodes++;
+        }
+    }
+
+    /**
+     * @return episodes written so far
+     */
+    public int getEpisodes()
+    {
+        return episodes;
+    }
+
+    /**
+     * Finish the file
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+    private void add(LanderState state)
+    {
+        if(size + Episode.FIELDS > buffer.length)
+        {
+            float[] bigger = new float[2*buffer.length];
+            System.arraycopy(buffer, 0, bigger, 0, size);
+            buffer = bigger;
+        }
+        buffer[size++] = (float)state.getTime();
+        buffer[size++] = (float)state.getHeight();
+        buffer[size++] = (float)state.getSpeedY();
+        buffer[size++] = (float)state.getLocation();
+        buffer[size++] = (float)state.getSpeedX();
+        buffer[size++] = (float)state.getRotation();
+        buffer[size++] = (float)state.getRotationSpeed();
+        buffer[size++] = (float)state.getFuel();
+        buffer[size++] = (float)state.getThrustLeft();
+        buffer[size++] = (float)state.getThrustRight();
+        buffer[size++] = (float)state.getImpulseX();
+        buffer[size++] = (float)state.getImpulseY();
+        buffer[size++] = state.isLanded() ? 1.0f : 0.0f;
+    }
+}
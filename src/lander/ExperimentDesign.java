@@ -0,0 +1,108 @@
+package lander;
+
+import java.util.Random;
+
+
+/**
+   Ways of choosing points to try in a box of parameters. Each point is a
+   row with one column per parameter.
+*/
+public class ExperimentDesign
+{
+    private ExperimentDesign()
+    {
+    }
+
+    /**
+     * A full grid over the box
+     *
+     * @param min - lowest value of each parameter
+     * @param max - highest value of each parameter
+     * @param points - number of values of each parameter - 1 means just the middle
+     * @return every combination of the values
+     */
+    public static double[][] grid(double[] min, double[] max, int[] points)
+    {
+        check(min, max);
+        if(points.length != min.length)
+        {
+            throw new IllegalArgumentException("need a number of points for every parameter");
+        }
+
+        long total = 1;
+        for(int p: points)
+        {
+            if(p < 1)
+            {
+                throw new IllegalArgumentException("need at least one point per parameter");
+            }
+            total *= p;
+        }
+        if(total > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("grid of " + total + " points is too big");
+        }
+
+        double[][] design = new double[(int)total][min.length];
+        for(int row = 0; row < total; row++)
+        {
+            int rest = row;
+            for(int d = min.length-1; d >= 0; d--)
+            {
+                int i = rest%points[d];
+                rest /= points[d];
+                design[row][d] = points[d] == 1 ? 0.5*(min[d] + max[d]) :
+                        min[d] + (max[d] - min[d])*i/(points[d] - 1);
+            }
+        }
+        return design;
+    }
+
+    /**
+     * A Latin hypercube over the box - each parameter's range is cut into
+     * one slice per sample and every slice is used exactly once
+     *
+     * @param min - lowest value of each parameter
+     * @param max - highest value of each parameter
+     * @param samples - number of points
+     * @param random - where the randomness comes from
+     * @return the points
+     */
+    public static double[][] latinHypercube(double[] min, double[] max, int samples, Random random)
+    {
+        check(min, max);
+        if(samples < 1)
+        {
+            throw new IllegalArgumentException("need at least one sample");
+        }
+
+        double[][] design = new double[samples][min.length];
+        int[] order = new int[samples];
+        for(int d = 0; d < min.length; d++)
+        {
+            for(int i = 0; i < samples; i++)
+            {
+                order[i] = i;
+            }
+            for(int i = samples-1; i > 0; i--)
+            {
+                int j = random.nextInt(i+1);
+                int t = order[i]; order[i] = order[j]; order[j] = t;
+            }
+            for(int i = 0; i < samples; i++)
+            {
+                double u = (order[i] + random.nextDouble())/samples;
+                design[i][d] = min[d] + (max[d] - min[d])*u;
+            }
+        }
+        return design;
+    }
+
+    private static void check(double[] min, double[] max)
+    {
+        if(min.length != max.length || min.length == 0)
+        {
+            throw new IllegalArgumentException("need a lowest and highest value for every parameter");
+        }
+    }
+}
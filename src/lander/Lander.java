@@ -2,11 +2,14 @@ package lander;
 
 import java.awt.geom.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.locks.LockSupport;
 import lander.controller.Controller;
 import lander.controller.ControllerException;
 import planet.Planet;
+import planet.Terrain;
 
 /**
    Encapsulates a lander vehicle.
@@ -19,6 +22,20 @@ public class Lander implements Runnable
     private static final double TIMESTEP = 0.02;   // seconds
     private int delay;                             // milliseconds
 
+    private double controlPeriod = TIMESTEP;       // seconds between controller updates
+    private int physicsSubsteps = 1;               // physics steps per controller update
+
+    // the turbulence random walk steps once per TIMESTEP however finely the physics is stepped
+    private double turbulenceClock;                // TIMESTEPs since the walk last stepped
+    private double turbulenceX;                    // N
+    private double turbulenceY;                    // N
+    private double elapsed;                        // seconds since reset
+
+    // how long the controller takes to answer
+    private LatencyHistogram controllerLatency = new LatencyHistogram();
+    private double latencyBudget = 1.0;            // fraction of the control period
+    private long budgetOverruns = 0;
+
     private Planet planet;
     private Controller controller;
     private LanderSpecs specs;
@@ -28,13 +45,17 @@ public class Lander implements Runnable
     private double maxThrust;   // N
     private double radius;      // m
 
-    private double height;      // m above surface
+    private double height;      // m above surface - or above the datum if the planet has terrain
+    private boolean landed;     // feet on the ground
     private double speedY;       // m/s towards surface
     private double location;     // m left(-ve) or right(+ve)
     private double speedX;       // m/s towards right
     private double rotation;     // radians anti-clockwise
     private double rotationSpeed;   // radians/s
 
+    // how hard landers bounce off each other, from 0 to 1
+    private static final double RESTITUTION = 0.5;
+
     private static final double ROTATION_RADIUS = 10.0;
     private static final double RR2 = ROTATION_RADIUS*ROTATION_RADIUS;
 
@@ -48,8 +69,10 @@ public class Lander implements Runnable
 
     private double safeLandingSpeed;
 
-    private boolean running = false;
-    private boolean paused = false;
+    // set from other threads to stop or pause run
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile Thread runner;
 
     private Vector<LanderObserver> observers;
 
@@ -131,20 +154,151 @@ public class Lander implements Runnable
      */
     public void reset()
     {
-        height = specs.getStartHeight();
-        speedY = 0.9*terminalVelocity(planet, specs);
-        location = 0.0;
-        speedX = 0.0;
-        rotation = 0.0;
-        rotationSpeed = 0.0;
+        reset(specs.getStartHeight(), 0.9*terminalVelocity(planet, specs), 0.0, 0.0, 0.0, 0.0,
+                specs.getFuelCapacity());
+    }
 
-        fuel = specs.getFuelCapacity();
-        setThrust(0.0, 0.0);
+    /**
+     * Reset the lander to a given state, with the engines off
+     *
+     * @param height - height above ground in m
+     * @param speedY - speed towards the surface in m/s
+     * @param location - distance left (-ve) or right (+ve) in m
+     * @param speedX - speed towards the right in m/s
+     * @param rotation - angle anti-clockwise in radians
+     * @param rotationSpeed - in radians/s
+     * @param fuel - in kg
+     */
+    public void reset(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel)
+    {
+        this.height = height;
+        this.speedY = speedY;
+        this.location = location;
+        this.speedX = speedX;
+        this.rotation = rotation;
+        this.rotationSpeed = rotationSpeed;
+
+        this.fuel = fuel;
+        thrustLeft = 0.0;
+        thrustRight = 0.0;
+
+        turbulenceClock = 0.0;
+        turbulenceX = turbulenceY = 0.0;
+        elapsed = 0.0;
+        landed = false;
 
         // [ChangSu] Must reset the Plannet as well!
         planet.reset();
     }
 
+    /**
+     * Put this lander in the same state as another, including its planet's
+     * turbulence, so the two can fly on from there separately. The specs and
+     * controller are not copied.
+     *
+     * @param other - the lander to copy
+     */
+    public void copyState(Lander other)
+    {
+        height = other.height;
+        speedY = other.speedY;
+        location = other.location;
+        speedX = other.speedX;
+        rotation = other.rotation;
+        rotationSpeed = other.rotationSpeed;
+
+        fuel = other.fuel;
+        thrustLeft = other.thrustLeft;
+        thrustRight = other.thrustRight;
+
+        turbulenceClock = other.turbulenceClock;
+        turbulenceX = other.turbulenceX;
+        turbulenceY = other.turbulenceY;
+        elapsed = other.elapsed;
+        landed = other.landed;
+
+        planet.copyState(other.planet);
+    }
+
+    /**
+     * Bounce this lander and another apart if their collision circles
+     * overlap. Speeds change along the line between their centres as for
+     * two bodies of their current mass, losing some energy, and the two are
+     * pushed apart so they no longer overlap. A lander that has landed does
+     * not move, and one that comes down on top of it lands there.
+     *
+     * @param other - the other lander
+     * @return whether they collided
+     */
+    public boolean collide(Lander other)
+    {
+        if(landed && other.landed)
+        {
+            return false;
+        }
+
+        double dx = other.location - location;
+        double dy = other.height - height;
+        double distance = Math.sqrt(dx*dx + dy*dy);
+        double reach = getCollisionRadius() + other.getCollisionRadius();
+        if(distance >= reach)
+        {
+            return false;
+        }
+
+        // unit vector from this lander to the other, in (sideways, up)
+        double nx = 1.0;
+        double ny = 0.0;
+        if(distance > 0.0)
+        {
+            nx = dx/distance;
+            ny = dy/distance;
+        }
+        // coming down on top of one that has landed counts as landing, on it
+        if(other.landed && ny < 0.0)
+        {
+            landOn(-nx, -ny, reach - distance);
+            return true;
+        }
+        if(landed && ny > 0.0)
+        {
+            other.landOn(nx, ny, reach - distance);
+            return true;
+        }
+
+        double inverseMass = landed ? 0.0 : 1.0/(emptyMass + fuel);
+        double otherInverseMass = other.landed ? 0.0 : 1.0/(other.emptyMass + other.fuel);
+        double inverseTotal = inverseMass + otherInverseMass;
+
+        // speedY is downwards, so upwards is -speedY
+        double closing = (other.speedX - speedX)*nx - (other.speedY - speedY)*ny;
+        if(closing < 0.0)
+        {
+            double impulse = -(1.0 + RESTITUTION)*closing/inverseTotal;
+            speedX -= impulse*inverseMass*nx;
+            speedY += impulse*inverseMass*ny;
+            other.speedX += impulse*otherInverseMass*nx;
+            other.speedY -= impulse*otherInverseMass*ny;
+        }
+
+        double push = (reach - distance)/inverseTotal;
+        location -= push*inverseMass*nx;
+        height -= push*inverseMass*ny;
+        other.location += push*otherInverseMass*nx;
+        other.height += push*otherInverseMass*ny;
+        return true;
+    }
+
+    private void landOn(double nx, double ny, double overlap)
+    {
+        landed = true;
+        thrustLeft = 0.0;
+        thrustRight = 0.0;
+        location += overlap*nx;
+        height += overlap*ny;
+    }
+
     /**
      * Calculate the terminal velocity of a lander on this planet
      *
@@ -172,37 +326,73 @@ public class Lander implements Runnable
     /*-------------------------------------------------------------------------------------*/
 
     /**
-     * The lander runs in its own thread, and can be started, paused, resumed, and stopped
+     * The lander runs in its own thread, and can be started, paused, resumed, and stopped.
+     * While paused, and between steps, the thread is parked, so it costs nothing and wakes
+     * at once when resumed or stopped. Interrupting the thread stops it too.
      *
      */
     public void run()
     {
+        runner = Thread.currentThread();
         running = true;
 
-        while(running)
+        try
         {
-            try
+            while(running)
             {
-                if(!paused) running = update(TIMESTEP);
-                Thread.sleep(delay);
-            }
-            catch(InterruptedException ie)
-            {
-                ie.printStackTrace(System.out);
-                running = false;
-            }
-            catch(ControllerException ce)
-            {
-                ce.printStackTrace(System.out);
-                running = false;
+                if(paused)
+                {
+                    LockSupport.park(this);
+                }
+                else
+                {
+                    try
+                    {
+                        if(!update(controlPeriod)) running = false;
+                    }
+                    catch(ControllerException ce)
+                    {
+                        ce.printStackTrace(System.out);
+                        running = false;
+                    }
+
+                    long wake = System.nanoTime() + delay*1000000L;
+                    long wait;
+                    while(running && !paused && !Thread.currentThread().isInterrupted() &&
+                            (wait = wake - System.nanoTime()) > 0)
+                    {
+                        LockSupport.parkNanos(this, wait);
+                    }
+                }
+
+                if(Thread.interrupted())
+                {
+                    running = false;
+                }
             }
         }
+        finally
+        {
+            runner = null;
+        }
+    }
+
+    /**
+     * Take one control step, as run does between sleeps - for callers that drive the lander themselves
+     *
+     * @return whether still going
+     * @throws ControllerException
+     */
+    public boolean step() throws ControllerException
+    {
+        return update(controlPeriod);
     }
 
     public void stop()
     {
         running = false;
         paused = false;
+        wake();
     }
 
     public boolean isRunning()
@@ -213,11 +403,22 @@ public class Lander implements Runnable
     public void pause()
     {
         paused = true;
+        wake();
     }
     
     public void resume()
     {
         paused = false;
+        wake();
+    }
+
+    private void wake()
+    {
+        Thread thread = runner;
+        if(thread != null)
+        {
+            LockSupport.unpark(thread);
+        }
     }
     
     public boolean isPaused()
@@ -236,11 +437,25 @@ public class Lander implements Runnable
         return planet;
     }
 
+    /**
+     * @return height in m above the surface - or, if the planet has terrain,
+     *         above its datum, which is how the lander is drawn and recorded
+     */
     public double getHeight()
     {
         return height;
     }
 
+    /**
+     * @return height in m above the ground directly under the lander - the
+     *         same as getHeight when there is no terrain
+     */
+    public double getAltitude()
+    {
+        Terrain terrain = planet.getTerrain();
+        return terrain == null ? height : height - terrain.getHeight(location);
+    }
+
     public double getSpeedY()
     {
         return speedY;
@@ -271,6 +486,39 @@ public class Lander implements Runnable
         return fuel;
     }
 
+    /**
+     * @return a snapshot of the lander as it is now
+     */
+    public LanderState getState()
+    {
+        return new LanderState(elapsed, height, speedY, location, speedX, rotation, rotationSpeed,
+                fuel, thrustLeft, thrustRight, turbulenceX, turbulenceY, landed);
+    }
+
+    /**
+     * @return whether the feet are on the ground
+     */
+    public boolean isLanded()
+    {
+        return landed;
+    }
+
+    /**
+     * @return radius in m of the circle around the lander, feet included, used for collisions
+     */
+    public double getCollisionRadius()
+    {
+        return FOOT_OFFSETS[FOOT_OFFSETS.length - 1]*2.0*radius/BODY_WIDTH;
+    }
+
+    /**
+     * @return seconds flown since the last reset
+     */
+    public double getElapsedTime()
+    {
+        return elapsed;
+    }
+
     public double getThrustLeft()
     {
         return thrustLeft;
@@ -310,6 +558,95 @@ public class Lander implements Runnable
         this.debug = debug;
     }
 
+    /**
+     * @return milliseconds between steps when the lander runs itself
+     */
+    public int getDelay()
+    {
+        return delay;
+    }
+
+    public double getControlPeriod()
+    {
+        return controlPeriod;
+    }
+
+    /**
+     * Set how often the controller is asked for a new thrust
+     *
+     * @param controlPeriod - seconds between controller updates
+     */
+    public void setControlPeriod(double controlPeriod)
+    {
+        if(!(controlPeriod > 0.0))
+        {
+            throw new IllegalArgumentException("control period must be positive");
+        }
+        this.controlPeriod = controlPeriod;
+    }
+
+    public LatencyHistogram getControllerLatency()
+    {
+        return controllerLatency;
+    }
+
+    public double getLatencyBudget()
+    {
+        return latencyBudget;
+    }
+
+    /**
+     * Set how long the controller may take to answer before the call is flagged
+     *
+     * @param latencyBudget - budget as a fraction of the control period
+     */
+    public void setLatencyBudget(double latencyBudget)
+    {
+        if(!(latencyBudget > 0.0))
+        {
+            throw new IllegalArgumentException("latency budget must be positive");
+        }
+        this.latencyBudget = latencyBudget;
+    }
+
+    /**
+     * @return number of controller calls that took longer than the latency budget
+     */
+    public long getBudgetOverruns()
+    {
+        return budgetOverruns;
+    }
+
+    /**
+     * Forget the controller latencies and overruns recorded so far
+     */
+    public void resetControllerLatency()
+    {
+        controllerLatency.reset();
+        budgetOverruns = 0;
+    }
+
+    public int getPhysicsSubsteps()
+    {
+        return physicsSubsteps;
+    }
+
+    /**
+     * Set how many physics steps are taken per controller update. The thrust
+     * is held between updates, so more substeps refine the physics without
+     * costing any more controller calls.
+     *
+     * @param physicsSubsteps - physics steps per controller update
+     */
+    public void setPhysicsSubsteps(int physicsSubsteps)
+    {
+        if(physicsSubsteps < 1)
+        {
+            throw new IllegalArgumentException("need at least one physics step per control update");
+        }
+        this.physicsSubsteps = physicsSubsteps;
+    }
+
     public double getFitness()
     {
         double fitness = 0.0;
@@ -321,8 +658,14 @@ public class Lander implements Runnable
         { 
             fitness = 80.0;
 
-            // penalise landing in the wrong spot
-            fitness -= 50.0*Math.abs(location)/100.0;
+            // penalise landing in the wrong spot - away from 0, or from the nearest pad if there is terrain
+            double target = 0.0;
+            Terrain terrain = planet.getTerrain();
+            if(terrain != null && terrain.getPadCount() > 0)
+            {
+                target = terrain.getPadCentre(terrain.getNearestPad(location));
+            }
+            fitness -= 50.0*Math.abs(location - target)/100.0;
 
             boolean crashed = false;
 
@@ -361,11 +704,38 @@ public class Lander implements Runnable
         return Math.max(0.0, fitness);
     }
 
+    /**
+     * @return whether the lander is down but came in too fast or too wonky
+     */
+    public boolean hasCrashed()
+    {
+        return landed && crashed(speedX, speedY, rotation);
+    }
+
+    /**
+     * @param state - a state of this lander, or one like it
+     * @return whether the lander was down in that state but came in too fast or too wonky
+     */
+    public boolean hasCrashed(LanderState state)
+    {
+        return state.isLanded() && crashed(state.getSpeedX(), state.getSpeedY(), state.getRotation());
+    }
+
+    private boolean crashed(double speedX, double speedY, double rotation)
+    {
+        double speed = Math.sqrt(speedX*speedX + speedY*speedY);
+        double angle = rotation;
+        while(angle > Math.PI) angle -= 2*Math.PI;
+        while(angle < -Math.PI) angle += 2*Math.PI;
+
+        return speed > safeLandingSpeed || Math.abs(angle) > 0.1;
+    }
+
     public boolean setThrust(double newThrustLeft, double newThrustRight)
     {
         boolean success = false;
 
-        if(fuel == 0.0 || height == 0.0)
+        if(fuel == 0.0 || landed)
         {
             success = newThrustLeft == 0.0 && newThrustRight == 0;
         }
@@ -387,7 +757,7 @@ public class Lander implements Runnable
 /*----------------------------------------------------------------------------------*/
 
     /**
-     * updates lander position, speed, fuel
+     * updates lander position, speed, fuel over one control period
      * 
      * @param time - elapsed time in seconds
      * @return - whether still going
@@ -397,9 +767,11 @@ public class Lander implements Runnable
     {        
         // get new thrust setting from controller
         // and make adjustment
+        long start = System.nanoTime();
         try
         {
-            Point2D.Double targetThrust = controller.getThrust(height, speedY, location, speedX,
+            // controllers fly by the height above the ground under them, not above the datum
+            Point2D.Double targetThrust = controller.getThrust(getAltitude(), speedY, location, speedX,
                     Math.toDegrees(rotation), Math.toDegrees(rotationSpeed), fuel);
             setThrust(targetThrust.x, targetThrust.y);
         }
@@ -407,10 +779,59 @@ public class Lander implements Runnable
         {
             exc.printStackTrace(System.out);
         }
+        long latency = System.nanoTime() - start;
+        controllerLatency.record(latency);
+        if(latency > latencyBudget*time*1e9)
+        {
+            budgetOverruns++;
+            if(debug)
+            {
+                System.out.println("controller took " + format.format(latency/1e6) + " ms, over budget of " +
+                        format.format(latencyBudget*time*1e3) + " ms");
+            }
+        }
         
+        // the thrust is held until the next controller update
         Point2D.Double ti = new Point2D.Double(0.0, 0.0);
-        
-        if(height > 0.0)    // still descending
+        double substep = time/physicsSubsteps;
+        for(int i = 0; i < physicsSubsteps && !landed; i++)
+        {
+            ti = step(substep);
+        }
+
+        if(debug)
+        {
+            System.out.println("height: " + format.format(height) + "\t" +
+                             "vertical speed: " + format.format(speedY) + "\t" +
+                             "location: " + format.format(location) + "\t" +
+                             "horizontal speed: " + format.format(speedX) + "\t" +
+                             "angle: " + format.format(Math.toDegrees(rotation)) + "\t" +
+                             "rotational speed: " + format.format(Math.toDegrees(rotationSpeed)) + "\n" +
+                             "fuel: " + format.format(fuel) + "\t" +
+                             "left thrust: " + format.format(thrustLeft) + "\t" +
+                             "right thrust: " + format.format(thrustRight) + "\t" +
+                             "turbulence: " + format.format(ti.x) + " : " + format.format(ti.y));
+        }
+
+        for(LanderObserver ob: observers)
+        {
+            ob.update(landed);
+        }
+
+        return !landed;
+    }    
+
+    /**
+     * updates lander position, speed, fuel for one physics step at the current thrust
+     *
+     * @param time - elapsed time in seconds
+     * @return - the turbulent impulse applied
+     */
+    private Point2D.Double step(double time)
+    {
+        Point2D.Double ti = new Point2D.Double(0.0, 0.0);
+
+        if(!landed)    // still descending
         {
             // calculate amount of fuel used this time step
             // neglects the possibility that landing occurs during this period
@@ -432,12 +853,6 @@ public class Lander implements Runnable
     
             // compute new height
             height = height - speedY*time;
-            if(height <= 0.0)
-            {
-                height = 0.0;  // landed
-                thrustLeft = 0.0;
-                thrustRight = 0.0;
-            }
 
             // compute new location
             location = location + speedX*time;
@@ -445,6 +860,13 @@ public class Lander implements Runnable
             // compute new rotation
             rotation = rotation + rotationSpeed*time;
 
+            if(touchedDown())
+            {
+                landed = true;
+                thrustLeft = 0.0;
+                thrustRight = 0.0;
+            }
+
             // compute new speeds
             double mass = emptyMass + fuel; // neglect fuel burned in this time step - should be small
             // gravity
@@ -456,7 +878,15 @@ public class Lander implements Runnable
             // neglect effect on rotation
 
             // turbulence
-            ti = planet.getTurbulentImpulse();
+            turbulenceClock += time/TIMESTEP;
+            while(turbulenceClock > 1.0 - 1e-9)
+            {
+                Point2D.Double impulse = planet.getTurbulentImpulse(height, location, elapsed);
+                turbulenceX = impulse.x;
+                turbulenceY = impulse.y;
+                turbulenceClock -= 1.0;
+            }
+            ti.setLocation(turbulenceX, turbulenceY);
             speedX += time*ti.x/mass;
             speedY += time*ti.y/mass;
 
@@ -489,29 +919,61 @@ public class Lander implements Runnable
                 thrustLeft = 0.0;
                 thrustRight = 0.0;
             }   // out of fuel - shut off rocket
+
+            elapsed += time;
         }
 
-        if(debug)
+        return ti;
+    }
+
+    /**
+     * Check for the ground, and if the lander has reached it, sit it on top.
+     * Without terrain the ground is flat at height 0. With terrain each of
+     * the four corners of the feet is tested, but only once the lowest foot
+     * is below the highest ground under the lander.
+     *
+     * @return whether the lander is down
+     */
+    private boolean touchedDown()
+    {
+        Terrain terrain = planet.getTerrain();
+        if(terrain == null)
         {
-            System.out.println("height: " + format.format(height) + "\t" +
-                             "vertical speed: " + format.format(speedY) + "\t" +
-                             "location: " + format.format(location) + "\t" +
-                             "horizontal speed: " + format.format(speedX) + "\t" +
-                             "angle: " + format.format(Math.toDegrees(rotation)) + "\t" +
-                             "rotational speed: " + format.format(Math.toDegrees(rotationSpeed)) + "\n" +
-                             "fuel: " + format.format(fuel) + "\t" +
-                             "left thrust: " + format.format(thrustLeft) + "\t" +
-                             "right thrust: " + format.format(thrustRight) + "\t" +
-                             "turbulence: " + format.format(ti.x) + " : " + format.format(ti.y));
+            if(height <= 0.0)
+            {
+                height = 0.0;
+                return true;
+            }
+            return false;
         }
 
-        for(LanderObserver ob: observers)
+        double scale = 2.0*radius/BODY_WIDTH;
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        double reach = FOOT_OFFSETS[FOOT_OFFSETS.length - 1]*scale;
+        double lowest = height - reach*Math.abs(sin);
+        if(lowest > terrain.getMaxHeight(location - reach*Math.abs(cos), location + reach*Math.abs(cos)))
         {
-            ob.update(height <= 0.0);
+            return false;
         }
 
-        return height > 0.0;
-    }    
+        double deepest = Double.POSITIVE_INFINITY;
+        for(double offset: FOOT_OFFSETS)
+        {
+            for(int side = -1; side <= 1; side += 2)
+            {
+                double dx = side*offset*scale;
+                double clearance = height + dx*sin - terrain.getHeight(location + dx*cos);
+                deepest = Math.min(deepest, clearance);
+            }
+        }
+        if(deepest <= 0.0)
+        {
+            height -= deepest;
+            return true;
+        }
+        return false;
+    }
 
     // some constants used to draw the lander - not realistic!!
     private static final double LEG_HEIGHT = 20.0;
@@ -523,25 +985,180 @@ public class Lander implements Runnable
     private static final double BODY_WIDTH = 80.0;
     private static final double BODY_HEIGHT = 40.0;
 
+    // distance of the inner and outer edge of each foot from the middle, in the same units
+    private static final double[] FOOT_OFFSETS = {
+        BODY_WIDTH/2 + LEG_SPREAD - FOOT_WIDTH/2, BODY_WIDTH/2 + LEG_SPREAD + FOOT_WIDTH/2};
+
+    /**
+     * Draw the lander as it is now with its feet centred on a point
+     *
+     * @param graphic - where to draw
+     * @param x - where the middle of the feet goes
+     * @param y - ditto
+     */
     public void draw(Graphics2D graphic, double x, double y)
     {
-        Paint oldPaint = graphic.getPaint();
+        draw(graphic, x, y, rotation, thrustLeft, thrustRight);
+    }
 
-        AffineTransform oldTransform = graphic.getTransform();
+    /**
+     * Draw this lander in some state, not necessarily its own
+     *
+     * @param graphic - where to draw
+     * @param x - where the middle of the feet goes
+     * @param y - ditto
+     * @param state - the rotation and thrust to draw it with
+     */
+    public void draw(Graphics2D graphic, double x, double y, LanderState state)
+    {
+        draw(graphic, x, y, state.getRotation(), state.getThrustLeft(), state.getThrustRight());
+    }
 
-        AffineTransform transform = (AffineTransform)oldTransform.clone();
+    /**
+     * The body comes from a sprite cache, only the flames are drawn afresh
+     */
+    private void draw(Graphics2D graphic, double x, double y, double rotation, double thrustLeft, double thrustRight)
+    {
+        int step = Sprites.step(rotation);
+        double angle = Sprites.angle(step);
 
-        transform.translate(x, y);
-        transform.rotate(-rotation);
-        transform.translate(-x, -y);
+        Sprite sprite = Sprites.get(step);
+        graphic.drawImage(sprite.image, (int)Math.round(x) + sprite.left, (int)Math.round(y) + sprite.top, null);
 
-        graphic.setTransform(transform);
+        // draw flame from thrusters
+        graphic.setColor(Color.yellow);
+        double cos = Math.cos(angle);
+        double sin = Math.sin(angle);
+
+        if(thrustLeft > 0.0)
+        {
+            drawFlame(graphic, x, y, cos, sin, -(BODY_WIDTH/2 + LEG_SPREAD), thrustLeft);
+        }
+
+        if(thrustRight > 0.0)
+        {
+            drawFlame(graphic, x, y, cos, sin, BODY_WIDTH/2 + LEG_SPREAD, thrustRight);
+        }
+    }
+
+    private void drawFlame(Graphics2D graphic, double x, double y, double cos, double sin, double foot, double thrust)
+    {
+        // corners before rotation, relative to (x, y), then turned anti-clockwise on screen
+        double[] dx = {foot - FOOT_WIDTH/2, foot + FOOT_WIDTH/2, foot};
+        double[] dy = {0.0, 0.0, 5+thrust/maxThrust*25};
+        int[] px = new int[3];
+        int[] py = new int[3];
+        for(int i = 0; i < 3; i++)
+        {
+            px[i] = (int)Math.round(x + dx[i]*cos + dy[i]*sin);
+            py[i] = (int)Math.round(y - dx[i]*sin + dy[i]*cos);
+        }
+        graphic.fillPolygon(px, py, 3);
+    }
+
+    /**
+     * The body at one rotation, and where its top left corner goes relative
+     * to the middle of the feet
+     */
+    private static class Sprite
+    {
+        final Image image;
+        final int left;
+        final int top;
+
+        Sprite(Image image, int left, int top)
+        {
+            this.image = image;
+            this.left = left;
+            this.top = top;
+        }
+    }
+
+    /**
+     * The body, legs and feet drawn once for each of a number of evenly
+     * spaced rotations into images the screen can blit quickly, each only
+     * as big as the rotated body. Every lander looks the same, so one cache
+     * serves them all; it keeps only the most recently used sprites, and can
+     * be used from any thread.
+     */
+    private static class Sprites
+    {
+        private static final int STEPS = 360;        // rotations in a full turn
+        private static final int MAX_SPRITES = 64;
+
+        // the body relative to the middle of the feet, with a margin for the stroke and edges
+        private static final Rectangle2D.Double BOUNDS = new Rectangle2D.Double(
+                -(BODY_WIDTH/2 + LEG_SPREAD + FOOT_WIDTH/2) - 2, -(LEG_HEIGHT + BODY_HEIGHT) - 2,
+                BODY_WIDTH + 2*LEG_SPREAD + FOOT_WIDTH + 4, LEG_HEIGHT + BODY_HEIGHT + 4);
+
+        private static final Map<Integer, Sprite> cache = new LinkedHashMap<Integer, Sprite>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Integer, Sprite> eldest)
+            {
+                return size() > MAX_SPRITES;
+            }
+        };
+
+        static int step(double rotation)
+        {
+            int step = (int)Math.round(rotation/(2.0*Math.PI)*STEPS)%STEPS;
+            return step < 0 ? step + STEPS : step;
+        }
 
+        static double angle(int step)
+        {
+            return 2.0*Math.PI*step/STEPS;
+        }
+
+        static synchronized Sprite get(int step)
+        {
+            Sprite sprite = cache.get(step);
+            if(sprite == null)
+            {
+                sprite = render(angle(step));
+                cache.put(step, sprite);
+            }
+            return sprite;
+        }
+
+        private static Sprite render(double angle)
+        {
+            AffineTransform rotate = AffineTransform.getRotateInstance(-angle);
+            Rectangle bounds = rotate.createTransformedShape(BOUNDS).getBounds();
+
+            BufferedImage image;
+            if(GraphicsEnvironment.isHeadless())
+            {
+                image = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+            }
+            else
+            {
+                image = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                        .getDefaultConfiguration().createCompatibleImage(bounds.width, bounds.height,
+                                Transparency.TRANSLUCENT);
+            }
+
+            Graphics2D graphic = image.createGraphics();
+            try
+            {
+                graphic.translate(-bounds.x, -bounds.y);
+                graphic.transform(rotate);
+                drawBody(graphic, 0.0, 0.0);
+            }
+            finally
+            {
+                graphic.dispose();
+            }
+            return new Sprite(image, bounds.x, bounds.y);
+        }
+    }
+
+    private static void drawBody(Graphics2D graphic, double x, double y)
+    {
         // body
         drawDome(graphic, x, y - LEG_HEIGHT, BODY_WIDTH, BODY_HEIGHT);
 
         // legs
-        Stroke oldStroke = graphic.getStroke();
         Stroke thick = new BasicStroke(5.0f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL);
         graphic.setStroke(thick);
 
@@ -574,38 +1191,9 @@ public class Lander implements Runnable
         graphic.draw(rightLeg);
 
         drawDome(graphic, x + BODY_WIDTH/2 + LEG_SPREAD, y, FOOT_WIDTH, FOOT_HEIGHT);
-
-        graphic.setStroke(oldStroke);
-        graphic.setPaint(oldPaint);
-
-        // draw flame from thrusters
-        graphic.setColor(Color.yellow);
-
-        if(thrustLeft > 0.0)
-        {
-            GeneralPath flame = new GeneralPath();
-            flame.moveTo(x - BODY_WIDTH/2 - LEG_SPREAD - FOOT_WIDTH/2, y);
-            flame.lineTo(x - BODY_WIDTH/2 - LEG_SPREAD + FOOT_WIDTH/2, y);
-            flame.lineTo(x - BODY_WIDTH/2 - LEG_SPREAD, y+5+thrustLeft/maxThrust*25);
-            flame.closePath();
-            graphic.fill(flame);
-        }
-
-        if(thrustRight > 0.0)
-        {
-            GeneralPath flame = new GeneralPath();
-
-            flame.moveTo(x + BODY_WIDTH/2 + LEG_SPREAD - FOOT_WIDTH/2, y);
-            flame.lineTo(x + BODY_WIDTH/2 + LEG_SPREAD + FOOT_WIDTH/2, y);
-            flame.lineTo(x + BODY_WIDTH/2 + LEG_SPREAD, y+5+thrustRight/maxThrust*25);
-            flame.closePath();
-            graphic.fill(flame);
-        }
-
-        graphic.setTransform(oldTransform);
     }
 
-    private void drawDome(Graphics2D graphic, double x, double y, double width, double height)
+    private static void drawDome(Graphics2D graphic, double x, double y, double width, double height)
     {
         Paint oldPaint = graphic.getPaint();
 
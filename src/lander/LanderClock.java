@@ -0,0 +1,261 @@
+package lander;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lander.controller.ControllerException;
+
+/**
+   Flies a lander against the wall clock at a chosen speed - real time,
+   some multiple of it, or as fast as it will go.
+
+   A scheduler calls the clock at a steady tick. Each tick works out how far
+   the flight should have got by now and steps the lander until it gets
+   there, several steps at a time if need be, so the speed holds however
+   the steps and ticks line up. A tick never steps for longer than a slice
+   of the tick period - if the lander can't keep up, the backlog is dropped
+   rather than piling up. As fast as possible simply steps for the whole
+   slice every tick.
+
+   By default every clock shares one small pool of daemon threads, so any
+   number of landers can be flown without a thread each. A paused clock has
+   its tick cancelled, so it costs nothing until it is resumed, and stop
+   waits for a tick in progress to finish, so once it returns the lander
+   can safely be reset.
+*/
+public class LanderClock
+{
+    public static final double UNLIMITED = Double.POSITIVE_INFINITY;
+
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLICE = TimeUnit.MILLISECONDS.toNanos(8);
+
+    private static ScheduledExecutorService sharedScheduler;
+
+    private Lander lander;
+    private ScheduledExecutorService scheduler;
+    private Flight flight;
+
+    private volatile double timeScale = 1.0;
+    private volatile boolean paused = false;
+
+    /**
+     * A scheduler with a daemon thread per core, shared by every clock made
+     * without one of its own
+     *
+     * @return the scheduler
+     */
+    public static synchronized ScheduledExecutorService getSharedScheduler()
+    {
+        if(sharedScheduler == null)
+        {
+            final AtomicInteger count = new AtomicInteger();
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "lander clock " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.setRemoveOnCancelPolicy(true);
+            sharedScheduler = pool;
+        }
+        return sharedScheduler;
+    }
+
+    /**
+     * Create a clock on the shared scheduler
+     *
+     * @param lander - the lander to fly
+     */
+    public LanderClock(Lander lander)
+    {
+        this(lander, getSharedScheduler());
+    }
+
+    /**
+     * Create a clock
+     *
+     * @param lander - the lander to fly
+     * @param scheduler - runs the ticks
+     */
+    public LanderClock(Lander lander, ScheduledExecutorService scheduler)
+    {
+        this.lander = lander;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param timeScale - seconds flown per second of wall time, or UNLIMITED
+     */
+    public void setTimeScale(double timeScale)
+    {
+        if(!(timeScale > 0.0))
+        {
+            throw new IllegalArgumentException("time scale must be positive");
+        }
+        this.timeScale = timeScale;
+    }
+
+    public double getTimeScale()
+    {
+        return timeScale;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Start flying the lander from wherever it is now
+     */
+    public synchronized void start()
+    {
+        stop();
+        flight = new Flight();
+        flight.schedule();
+    }
+
+    /**
+     * Stop flying, and wait for a step in progress to finish
+     */
+    public synchronized void stop()
+    {
+        paused = false;
+        if(flight != null)
+        {
+            flight.finish();
+            flight.await();
+            flight = null;
+        }
+    }
+
+    public synchronized boolean isRunning()
+    {
+        return flight != null && !flight.finished;
+    }
+
+    public synchronized void pause()
+    {
+        if(!paused && flight != null)
+        {
+            paused = true;
+            flight.cancel();
+        }
+    }
+
+    public synchronized void resume()
+    {
+        if(paused && flight != null)
+        {
+            paused = false;
+            flight.schedule();
+        }
+    }
+
+    public boolean isPaused()
+    {
+        return paused;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * One flight from start to landing or stop - a later start gets a new
+     * one, so a tick left over from an old flight can never stop it. Ticks
+     * hold the flight's lock.
+     */
+    private class Flight implements Runnable
+    {
+        volatile boolean finished = false;
+        private ScheduledFuture<?> future;
+
+        // only touched by the ticks - the flight time reached at a wall time, and at which scale
+        private long anchorNanos;
+        private double anchorTime = 0.0;
+        private double anchorScale;
+        private double flown = 0.0;
+        private boolean restart = true;
+
+        synchronized void schedule()
+        {
+            restart = true;
+            future = scheduler.scheduleAtFixedRate(this, 0, TICK, TimeUnit.NANOSECONDS);
+        }
+
+        synchronized void cancel()
+        {
+            if(future != null)
+            {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        void finish()
+        {
+            finished = true;
+            cancel();
+        }
+
+        /**
+         * Wait for a tick in progress to finish
+         */
+        synchronized void await()
+        {
+        }
+
+        public synchronized void run()
+        {
+            if(finished || future == null)
+            {
+                // finished or paused since this tick was due
+                cancel();
+                return;
+            }
+
+            long now = System.nanoTime();
+            double scale = timeScale;
+            if(restart || scale != anchorScale)
+            {
+                // start counting again from here
+                restart = false;
+                anchorNanos = now;
+                anchorTime = flown;
+                anchorScale = scale;
+            }
+
+            long sliceEnd = now + SLICE;
+            double target = anchorTime + scale*(now - anchorNanos)/1e9;
+            double period = lander.getControlPeriod();
+            while(!finished && !paused && (scale == UNLIMITED || flown + 0.5*period < target))
+            {
+                try
+                {
+                    if(!lander.step())
+                    {
+                        finish();
+                    }
+                }
+                catch(ControllerException ce)
+                {
+                    ce.printStackTrace(System.out);
+                    finish();
+                }
+                flown += period;
+
+                if(System.nanoTime() - sliceEnd > 0)
+                {
+                    // can't keep up - carry on from here next tick rather than trying to make it up
+                    anchorNanos = System.nanoTime();
+                    anchorTime = flown;
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -2,9 +2,17 @@ package lander;
 
 
 import au.edu.ecu.is.fuzzy.FuzzyException;
+import java.io.File;
+import java.io.IOException;
+import lander.controller.CachingController;
 import lander.controller.Controller;
+import lander.controller.MLPController;
 import lander.controller.PiraveenController;
+import planet.ArrayTurbulenceTape;
 import planet.Planet;
+import planet.Terrain;
+import planet.TurbulenceTapeBank;
+import planet.WindField;
 
 /**
    Application that tests a controller for a simulated Mars lander
@@ -19,21 +27,43 @@ public class LanderEvaluator implements LanderObserver, Runnable
 
     private double fitness;
 
+    // when set, trial n flies through episode n of the bank
+    private TurbulenceTapeBank bank = null;
+
+    // when set, every trial is recorded
+    private EpisodeRecorder recorder = null;
+
     private boolean runCompleted = false;
 
     private int reps = 20;
     private static int REPS = 100; //20;
+    private static final int CACHE_ENTRIES = 1 << 16;
 
     /**
      * Run some tests to evaluate a controller
      * 
-     * @param args -d to turn on debugging info, -r 5 to do 5 trials
+     * @param args -d to turn on debugging info, -r 5 to do 5 trials,
+     *             -c 200 to cache controller answers on a grid of 200 cells per unit,
+     *             -m weights.mlp to evaluate an MLPController instead of the fuzzy one,
+     *             -t worst.tape to fly every trial through a saved turbulence tape,
+     *             -b winds.tbk to fly trial n through episode n of a turbulence tape bank,
+     *             -w 3 to fly through the Mars wind field made from seed 3,
+     *             -g 3 to land on the Mars terrain made from seed 3,
+     *             -o flights.eps to record every trial to an episode file
      * @throws java.lang.FuzzyException
+     * @throws java.io.IOException
      */
-    public static void main(String[] args) throws FuzzyException
+    public static void main(String[] args) throws FuzzyException, IOException
     {   
         boolean debug = true;
         int reps = REPS;
+        int cacheLevels = 0;
+        File weights = null;
+        File tape = null;
+        File bank = null;
+        Long windSeed = null;
+        Long terrainSeed = null;
+        File episodes = null;
         int i = 0;
         while(i < args.length)
         {   
@@ -46,17 +76,99 @@ public class LanderEvaluator implements LanderObserver, Runnable
                 i++;
                 reps = Integer.parseInt(args[i]);
             }
+            else if(args[i].equalsIgnoreCase("-c"))
+            {
+                i++;
+                cacheLevels = Integer.parseInt(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-m"))
+            {
+                i++;
+                weights = new File(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-t"))
+            {
+                i++;
+                tape = new File(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-b"))
+            {
+                i++;
+                bank = new File(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-w"))
+            {
+                i++;
+                windSeed = Long.parseLong(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-g"))
+            {
+                i++;
+                terrainSeed = Long.parseLong(args[i]);
+            }
+            else if(args[i].equalsIgnoreCase("-o"))
+            {
+                i++;
+                episodes = new File(args[i]);
+            }
             i++;
         }
 
         Planet mars = Planet.getMars();
         LanderSpecs marsLanderSpecs = LanderSpecs.getMarsLanderSpecs();
-        Controller controller = new PiraveenController(mars, marsLanderSpecs);
+        if(tape != null)
+        {
+            mars.setTurbulenceTape(ArrayTurbulenceTape.load(tape));
+        }
+        if(windSeed != null)
+        {
+            mars.setWindField(WindField.getMarsWindField(windSeed));
+        }
+        if(terrainSeed != null)
+        {
+            mars.setTerrain(Terrain.getMarsTerrain(terrainSeed));
+        }
+        Controller controller;
+        if(weights != null)
+        {
+            controller = MLPController.load(mars, marsLanderSpecs, weights);
+        }
+        else
+        {
+            controller = new PiraveenController(mars, marsLanderSpecs);
+        }
+        CachingController cache = null;
+        if(cacheLevels > 0)
+        {
+            cache = new CachingController(controller, mars, marsLanderSpecs, cacheLevels, CACHE_ENTRIES);
+            controller = cache;
+        }
         LanderEvaluator eval = LanderEvaluator.getMarsLanderEvaluator(controller, debug, reps);
+        if(bank != null)
+        {
+            eval.setTapeBank(TurbulenceTapeBank.open(bank));
+        }
+        EpisodeRecorder recorder = null;
+        if(episodes != null)
+        {
+            recorder = new EpisodeRecorder(eval.lander, episodes);
+            eval.setRecorder(recorder);
+        }
 
         eval.run();
+        if(recorder != null)
+        {
+            recorder.close();
+            System.out.println("Recorded " + recorder.getEpisodes() + " episodes to " + episodes);
+        }
         
         System.out.println("Average fitness = " + eval.getFitness());
+        System.out.println("Controller latency: " + eval.getControllerLatency().summary() +
+                ", " + eval.getBudgetOverruns() + " over budget");
+        if(cache != null)
+        {
+            System.out.println("Cache hit rate = " + cache.getHitRate() + " (" + cache.getSize() + " cells)");
+        }
     }
 
     /**
@@ -94,11 +206,20 @@ public class LanderEvaluator implements LanderObserver, Runnable
     {   
         runCompleted = false;
         fitness = 0.0;
+        lander.resetControllerLatency();
         try
         {   
             for(int rep = 0; rep < reps; rep++)
             {   
+                if(bank != null)
+                {
+                    planet.setTurbulenceTape(bank.getEpisode(rep%bank.getEpisodes()));
+                }
                 lander.reset();
+                if(recorder != null)
+                {
+                    recorder.begin();
+                }
                 lander.run();
             }
             runCompleted = true;
@@ -137,4 +258,45 @@ public class LanderEvaluator implements LanderObserver, Runnable
     {
         return fitness/reps;
     }
+
+    /**
+     * Fly each trial through the next episode of a bank, starting again at
+     * the first episode on every run, instead of through random turbulence
+     *
+     * @param bank - the bank, or null for random turbulence
+     */
+    public void setTapeBank(TurbulenceTapeBank bank)
+    {
+        this.bank = bank;
+        if(bank == null)
+        {
+            planet.setTurbulenceTape(null);
+        }
+    }
+
+    /**
+     * Record every trial
+     *
+     * @param recorder - a recorder watching this evaluator's lander, or null to stop recording
+     */
+    public void setRecorder(EpisodeRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @return how long the controller took per call over the last run
+     */
+    public LatencyHistogram getControllerLatency()
+    {
+        return lander.getControllerLatency();
+    }
+
+    /**
+     * @return number of controller calls over the latency budget in the last run
+     */
+    public long getBudgetOverruns()
+    {
+        return lander.getBudgetOverruns();
+    }
 }
@@ -0,0 +1,165 @@
+package lander;
+
+/**
+   The state of a lander at one moment - where it is, how fast it is going,
+   its fuel and thrust, and the turbulence pushing it. A state never changes
+   once made, so it can be handed from the thread flying the lander to
+   others that draw or record it.
+*/
+public class LanderState
+{
+    private final double time;          // s since reset
+    private final double height;        // m
+    private final double speedY;        // m/s towards surface
+    private final double location;      // m
+    private final double speedX;        // m/s towards right
+    private final double rotation;      // radians anti-clockwise
+    private final double rotationSpeed; // radians/s
+    private final double fuel;          // kg
+    private final double thrustLeft;    // N
+    private final double thrustRight;   // N
+    private final double impulseX;      // N
+    private final double impulseY;      // N
+    private final boolean landed;
+
+    /**
+     * Create a state
+     *
+     * @param time - seconds since the lander was reset
+     * @param height - m
+     * @param speedY - m/s towards the surface
+     * @param location - m
+     * @param speedX - m/s towards the right
+     * @param rotation - radians anti-clockwise
+     * @param rotationSpeed - radians/s
+     * @param fuel - kg
+     * @param thrustLeft - N
+     * @param thrustRight - N
+     * @param impulseX - sideways turbulent impulse in N
+     * @param impulseY - vertical turbulent impulse in N
+     * @param landed - whether the feet are on the ground
+     */
+    public LanderState(double time, double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel, double thrustLeft, double thrustRight,
+            double impulseX, double impulseY, boolean landed)
+    {
+        this.time = time;
+        this.height = height;
+        this.speedY = speedY;
+        this.location = location;
+        this.speedX = speedX;
+        this.rotation = rotation;
+        this.rotationSpeed = rotationSpeed;
+        this.fuel = fuel;
+        this.thrustLeft = thrustLeft;
+        this.thrustRight = thrustRight;
+        this.impulseX = impulseX;
+        this.impulseY = impulseY;
+        this.landed = landed;
+    }
+
+    /**
+     * A state part way between two others - the motion and fuel are blended,
+     * the thrust, turbulence and whether it has landed are taken from the
+     * nearer one
+     *
+     * @param from - the earlier state
+     * @param to - the later state
+     * @param fraction - 0 for from, 1 for to
+     * @return the state in between
+     */
+    public static LanderState interpolate(LanderState from, LanderState to, double fraction)
+    {
+        if(fraction <= 0.0)
+        {
+            return from;
+        }
+        if(fraction >= 1.0)
+        {
+            return to;
+        }
+        LanderState nearer = fraction < 0.5 ? from : to;
+        return new LanderState(
+                lerp(from.time, to.time, fraction),
+                lerp(from.height, to.height, fraction),
+                lerp(from.speedY, to.speedY, fraction),
+                lerp(from.location, to.location, fraction),
+                lerp(from.speedX, to.speedX, fraction),
+                lerp(from.rotation, to.rotation, fraction),
+                lerp(from.rotationSpeed, to.rotationSpeed, fraction),
+                lerp(from.fuel, to.fuel, fraction),
+                nearer.thrustLeft, nearer.thrustRight, nearer.impulseX, nearer.impulseY, nearer.landed);
+    }
+
+    private static double lerp(double a, double b, double f)
+    {
+        return a + (b - a)*f;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public double getTime()
+    {
+        return time;
+    }
+
+    public double getHeight()
+    {
+        return height;
+    }
+
+    public double getSpeedY()
+    {
+        return speedY;
+    }
+
+    public double getLocation()
+    {
+        return location;
+    }
+
+    public double getSpeedX()
+    {
+        return speedX;
+    }
+
+    public double getRotation()
+    {
+        return rotation;
+    }
+
+    public double getRotationSpeed()
+    {
+        return rotationSpeed;
+    }
+
+    public double getFuel()
+    {
+        return fuel;
+    }
+
+    public double getThrustLeft()
+    {
+        return thrustLeft;
+    }
+
+    public double getThrustRight()
+    {
+        return thrustRight;
+    }
+
+    public double getImpulseX()
+    {
+        return impulseX;
+    }
+
+    public double getImpulseY()
+    {
+        return impulseY;
+    }
+
+    public boolean isLanded()
+    {
+        return landed;
+    }
+}
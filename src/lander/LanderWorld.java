@@ -0,0 +1,386 @@
+package lander;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import lander.controller.Controller;
+import lander.controller.ControllerException;
+import lander.controller.PiraveenController;
+import planet.Planet;
+import planet.Terrain;
+
+/**
+   Many landers sharing the same sky, stepped together one tick at a time,
+   bouncing off each other when they touch and counting how often they
+   come closer than a separation distance.
+
+   Neighbours are found with a uniform grid of square cells at least as big
+   as the separation distance, so a lander only has to look at the landers
+   in its own cell and the eight around it. The grid is hashed into a table
+   of buckets, each the head of a doubly linked list threaded through int
+   arrays indexed by lander. After a tick only the landers that moved into
+   a different cell are unlinked and linked again, so keeping the grid up
+   to date and finding neighbours both cost about the same per lander
+   however many there are.
+*/
+public class LanderWorld
+{
+    private static final int NONE = -1;
+
+    private double cellSize;
+    private double separation;
+
+    private List<Lander> landers = new ArrayList<Lander>();
+
+    // the grid - cell coordinates of each lander, the bucket heads, and the lists through them
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private int[] head = new int[0];
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+    private int mask;
+
+    private long ticks;
+    private long collisions;
+    private long tooClose;
+    private long pairChecks;
+    private long relinks;
+
+    /**
+     * Drop a swarm onto Mars and time it at increasing sizes
+     *
+     * @param args - swarm sizes, by default 10 100 1000 4000
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int[] sizes = {10, 100, 1000, 4000};
+        if(args.length > 0)
+        {
+            sizes = new int[args.length];
+            for(int i = 0; i < args.length; i++)
+            {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        for(int count: sizes)
+        {
+            LanderWorld world = getMarsSwarm(count, 1);
+            long start = System.nanoTime();
+            while(world.step() > 0)
+            {
+            }
+            double perTick = (System.nanoTime() - start)/1e3/world.getTicks();
+
+            int crashed = 0;
+            double fitness = 0.0;
+            for(Lander lander: world.getLanders())
+            {
+                fitness += lander.getFitness();
+                if(lander.hasCrashed()) crashed++;
+            }
+            System.out.println(String.format("%5d landers: %4d ticks, %8.1f us per tick (%.2f us per lander), " +
+                    "%.1f pair checks and %.2f relinks per lander per tick, %d collisions, %d too close, " +
+                    "%d crashed, average fitness %.1f",
+                    count, world.getTicks(), perTick, perTick/count,
+                    (double)world.getPairChecks()/world.getTicks()/count,
+                    (double)world.getRelinks()/world.getTicks()/count,
+                    world.getCollisions(), world.getTooClose(), crashed, fitness/count));
+        }
+    }
+
+    /**
+     * A swarm of Mars landers spread over the sky above the whole of the
+     * Mars terrain, one controller shared between them
+     *
+     * @param count - number of landers
+     * @param seed - seed for where they start and for their turbulence
+     * @return the world
+     * @throws ControllerException
+     */
+    public static LanderWorld getMarsSwarm(int count, long seed) throws ControllerException
+    {
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        Terrain terrain = Terrain.getMarsTerrain(seed);
+        Controller controller = PiraveenController.FACTORY.create(mars, specs);
+        double speed = 0.9*Lander.terminalVelocity(mars, specs);
+
+        Random random = new Random(seed);
+        LanderWorld world = new LanderWorld(20.0);
+        for(int i = 0; i < count; i++)
+        {
+            Planet own = new Planet(mars.getGravity(), mars.getViscocity(), mars.getTurbulence());
+            own.setTerrain(terrain);
+            Lander lander = new Lander(own, controller, specs, 0);
+            double location = terrain.getMinX() + (terrain.getMaxX() - terrain.getMinX())*random.nextDouble();
+            lander.reset(specs.getStartHeight()*(1.0 + 0.5*random.nextDouble()), speed,
+                    location, 0.0, 0.0, 0.0, specs.getFuelCapacity());
+            own.setSeed(random.nextLong());
+            world.add(lander);
+        }
+        return world;
+    }
+
+    /**
+     * Create an empty world
+     *
+     * @param separation - landers closer than this in m count as too close
+     */
+    public LanderWorld(double separation)
+    {
+        if(!(separation > 0.0))
+        {
+            throw new IllegalArgumentException("separation must be positive");
+        }
+        this.separation = separation;
+        this.cellSize = separation;
+    }
+
+    /**
+     * Add a lander, as it is now
+     *
+     * @param lander - the lander - it should have its own planet, though the planets can share terrain and wind
+     */
+    public void add(Lander lander)
+    {
+        landers.add(lander);
+        boolean bigger = 2.0*lander.getCollisionRadius() > cellSize;
+        if(bigger)
+        {
+            cellSize = 2.0*lander.getCollisionRadius();
+        }
+
+        int n = landers.size();
+        if(cellX.length < n)
+        {
+            int capacity = Math.max(16, 2*cellX.length);
+            cellX = copy(cellX, capacity);
+            cellY = copy(cellY, capacity);
+            next = copy(next, capacity);
+            previous = copy(previous, capacity);
+        }
+        if(head.length < 2*n || bigger)
+        {
+            rehash(Math.max(32, head.length < 2*n ? 2*head.length : head.length));
+        }
+        else
+        {
+            link(n - 1);
+        }
+    }
+
+    private static int[] copy(int[] from, int length)
+    {
+        int[] to = new int[length];
+        System.arraycopy(from, 0, to, 0, from.length);
+        return to;
+    }
+
+    public List<Lander> getLanders()
+    {
+        return landers;
+    }
+
+    public double getSeparation()
+    {
+        return separation;
+    }
+
+    /**
+     * @return ticks stepped so far
+     */
+    public long getTicks()
+    {
+        return ticks;
+    }
+
+    /**
+     * @return number of times two landers have bumped into each other
+     */
+    public long getCollisions()
+    {
+        return collisions;
+    }
+
+    /**
+     * @return number of times, summed over ticks, that two landers in the air were closer than the separation
+     */
+    public long getTooClose()
+    {
+        return tooClose;
+    }
+
+    /**
+     * @return number of pairs of landers whose distance has been worked out
+     */
+    public long getPairChecks()
+    {
+        return pairChecks;
+    }
+
+    /**
+     * @return number of times a lander moved to a different cell of the grid
+     */
+    public long getRelinks()
+    {
+        return relinks;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Step every lander still in the air, then bring the grid up to date and
+     * sort out landers that have come too close
+     *
+     * @return number of landers still in the air
+     * @throws ControllerException
+     */
+    public int step() throws ControllerException
+    {
+        int flying = 0;
+        long before = collisions;
+        for(int i = 0; i < landers.size(); i++)
+        {
+            Lander lander = landers.get(i);
+            if(!lander.isLanded())
+            {
+                lander.step();
+                flying++;
+                move(i);
+            }
+        }
+
+        for(int i = 0; i < landers.size(); i++)
+        {
+            Lander lander = landers.get(i);
+            if(lander.isLanded())
+            {
+                continue;
+            }
+
+            // each pair of flyers is looked at once, from the one with the lower index
+            for(int gx = cellX[i] - 1; gx <= cellX[i] + 1; gx++)
+            {
+                for(int gy = cellY[i] - 1; gy <= cellY[i] + 1; gy++)
+                {
+                    for(int j = head[bucket(gx, gy)]; j != NONE; j = next[j])
+                    {
+                        if(j == i || cellX[j] != gx || cellY[j] != gy)
+                        {
+                            continue;
+                        }
+                        Lander other = landers.get(j);
+                        if(!other.isLanded() && j < i)
+                        {
+                            continue;
+                        }
+
+                        pairChecks++;
+                        double dx = other.getLocation() - lander.getLocation();
+                        double dy = other.getHeight() - lander.getHeight();
+                        double distance = Math.sqrt(dx*dx + dy*dy);
+                        if(distance < separation && !other.isLanded())
+                        {
+                            tooClose++;
+                        }
+                        if(lander.collide(other))
+                        {
+                            collisions++;
+                        }
+                    }
+                }
+            }
+        }
+
+        // bumped landers are relinked only now, so no list changes while it is being walked - landed
+        // ones too, as one seated on another can be moved into the next cell, and is never moved again
+        if(collisions > before)
+        {
+            for(int i = 0; i < landers.size(); i++)
+            {
+                move(i);
+            }
+        }
+
+        ticks++;
+        return flying;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    private int cell(double coordinate)
+    {
+        return (int)Math.floor(coordinate/cellSize);
+    }
+
+    private int bucket(int gx, int gy)
+    {
+        int h = gx*0x9E3779B1 + gy*0x85EBCA77;
+        return (h ^ (h >>> 15)) & mask;
+    }
+
+    /**
+     * Relink a lander if it has moved to a different cell
+     */
+    private void move(int i)
+    {
+        Lander lander = landers.get(i);
+        int gx = cell(lander.getLocation());
+        int gy = cell(lander.getHeight());
+        if(gx != cellX[i] || gy != cellY[i])
+        {
+            unlink(i);
+            link(i);
+            relinks++;
+        }
+    }
+
+    private void link(int i)
+    {
+        Lander lander = landers.get(i);
+        cellX[i] = cell(lander.getLocation());
+        cellY[i] = cell(lander.getHeight());
+        int b = bucket(cellX[i], cellY[i]);
+        previous[i] = NONE;
+        next[i] = head[b];
+        if(head[b] != NONE)
+        {
+            previous[head[b]] = i;
+        }
+        head[b] = i;
+    }
+
+    private void unlink(int i)
+    {
+        if(previous[i] != NONE)
+        {
+            next[previous[i]] = next[i];
+        }
+        else
+        {
+            head[bucket(cellX[i], cellY[i])] = next[i];
+        }
+        if(next[i] != NONE)
+        {
+            previous[next[i]] = previous[i];
+        }
+    }
+
+    /**
+     * Build the grid from scratch with a new number of buckets - only when
+     * the table has to grow, or the cells do
+     */
+    private void rehash(int buckets)
+    {
+        head = new int[buckets];
+        mask = buckets - 1;
+        Arrays.fill(head, NONE);
+        for(int i = 0; i < landers.size(); i++)
+        {
+            link(i);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package lander;
+
+import java.util.Arrays;
+
+/**
+   A histogram of latencies in the style of HdrHistogram. Buckets double in
+   width with each power of two and are split into sub-buckets, so every
+   recorded value is kept to within about 6% while the whole range of a long
+   fits in under a thousand counters. Recording is a few shifts and an
+   array increment, so it can sit on a hot path.
+
+   Not thread safe - use one per thread and add them together afterwards.
+*/
+public class LatencyHistogram
+{
+    // values below SUB_BUCKETS are counted exactly, above that each power of two
+    // is split into HALF sub-buckets
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS/2;
+    private static final int BUCKETS = (64 - SUB_BITS + 1)*HALF + HALF;
+
+    private long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long max = 0;
+    private long min = Long.MAX_VALUE;
+    private double total = 0.0;
+
+    /**
+     * Record one value
+     *
+     * @param value - the value, usually nanoseconds - negative values count as 0
+     */
+    public void record(long value)
+    {
+        if(value < 0) value = 0;
+
+        counts[index(value)]++;
+        count++;
+        total += value;
+        if(value > max) max = value;
+        if(value < min) min = value;
+    }
+
+    /**
+     * Add all of another histogram's values to this one
+     *
+     * @param other - the histogram to add
+     */
+    public void add(LatencyHistogram other)
+    {
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+        min = Math.min(min, other.min);
+    }
+
+    public void reset()
+    {
+        Arrays.fill(counts, 0L);
+        count = 0;
+        max = 0;
+        min = Long.MAX_VALUE;
+        total = 0.0;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    public long getMin()
+    {
+        return count == 0 ? 0 : min;
+    }
+
+    public double getMean()
+    {
+        return count == 0 ? 0.0 : total/count;
+    }
+
+    /**
+     * Get the value below which a given percentage of the recorded values fall
+     *
+     * @param percentile - between 0 and 100
+     * @return the highest value in the bucket holding that percentile, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if(count == 0) return 0;
+
+        long rank = (long)Math.ceil(Math.max(0.0, Math.min(100.0, percentile))/100.0*count);
+        rank = Math.max(1, rank);
+
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank)
+            {
+                return Math.min(max, highestValue(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return p50, p99 and max in microseconds, for reports
+     */
+    public String summary()
+    {
+        return String.format("p50 = %.1f us, p99 = %.1f us, max = %.1f us (%d calls)",
+                getValueAtPercentile(50.0)/1000.0, getValueAtPercentile(99.0)/1000.0,
+                getMax()/1000.0, getCount());
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    private static int index(long value)
+    {
+        if(value < SUB_BUCKETS) return (int)value;
+
+        // shift so the top SUB_BITS-1 bits land in [HALF, SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift*HALF + (int)(value >>> shift);
+    }
+
+    private static long highestValue(int index)
+    {
+        if(index < SUB_BUCKETS) return index;
+
+        int shift = index/HALF - 1;
+        long sub = index%HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
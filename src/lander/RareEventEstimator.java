@@ -0,0 +1,436 @@
+package lander;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lander.controller.Controller;
+import lander.controller.ControllerException;
+import lander.controller.ControllerFactory;
+import lander.controller.PiraveenController;
+import planet.Planet;
+
+/**
+   Estimates small crash probabilities by splitting the landers that are
+   doing badly, rather than flying millions of ordinary descents.
+
+   A replica flies a population of landers down to a series of altitude
+   levels. At each level every lander is scored by how close it is to
+   crashing - the larger of its speed over the safe landing speed and its
+   tilt over the crash angle - and its weight is multiplied by
+   exp(lambda*(score now - score at the last level)). When the weights get
+   too uneven the population is resampled by weight, so landers heading for
+   trouble are cloned and the others dropped, each clone flying on with its
+   own turbulence. Because the weights telescope, a lander that crashes
+   counts exp(-lambda*(score at the last level - starting score)) times its
+   weight and the average weights at each resampling, which keeps the
+   estimate unbiased whatever lambda and the levels are. With lambda 0 it
+   is plain Monte Carlo.
+
+   Drift builds up over the whole descent, so the levels should start near
+   the top; if they start low, the first resampling has to make up for all
+   of it at once and the population collapses onto a few landers.
+
+   Independent replicas run on separate threads and the spread of their
+   estimates gives the confidence interval. The controller is shared by
+   the landers of a replica, so it must not remember anything between
+   calls.
+*/
+public class RareEventEstimator
+{
+    // crash angle, as in Lander.hasCrashed
+    private static final double CRASH_ROTATION = 0.1;
+
+    // resample when the effective number of landers falls below this fraction
+    private static final double RESAMPLE_BELOW = 0.5;
+
+    // standard normal quantile for a 95% interval
+    private static final double Z95 = 1.959964;
+
+    private Planet planet;
+    private LanderSpecs specs;
+    private ControllerFactory factory;
+    private int particles;
+    private double[] levels;
+    private double lambda;
+    private int threads;
+    private long seed = 0;
+
+    private double[] estimates;
+
+    /**
+     * Estimate the crash probability of the Piraveen controller on Mars
+     *
+     * @param args -p 500 landers per replica, -r 20 replicas, -l 40 for lambda, -k 30 levels,
+     *             -h 1350 for the highest level in m, -t 50 for the turbulence in N, -s 1 for the seed
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        int particles = 500;
+        int replicas = 20;
+        double lambda = 40.0;
+        int levelCount = 30;
+        double top = 0.9*specs.getStartHeight();
+        double turbulence = Planet.getMars().getTurbulence();
+        long seed = 1;
+        int i = 0;
+        while(i < args.length)
+        {
+            if(args[i].equalsIgnoreCase("-p"))
+            {
+                particles = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-r"))
+            {
+                replicas = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-l"))
+            {
+                lambda = Double.parseDouble(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-k"))
+            {
+                levelCount = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-h"))
+            {
+                top = Double.parseDouble(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-t"))
+            {
+                turbulence = Double.parseDouble(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-s"))
+            {
+                seed = Long.parseLong(args[++i]);
+            }
+            i++;
+        }
+
+        Planet mars = Planet.getMars();
+        Planet planet = new Planet(mars.getGravity(), mars.getViscocity(), turbulence);
+        RareEventEstimator estimator = new RareEventEstimator(planet, specs,
+                PiraveenController.FACTORY, particles, geometricLevels(top, 2.0, levelCount), lambda,
+                Runtime.getRuntime().availableProcessors());
+        estimator.setSeed(seed);
+
+        long start = System.currentTimeMillis();
+        estimator.run(replicas);
+        long elapsed = System.currentTimeMillis() - start;
+
+        double[] interval = estimator.getConfidenceInterval();
+        System.out.println(replicas + " replicas x " + particles + " landers in " + elapsed + " ms");
+        System.out.println("P(crash) = " + estimator.getProbability() +
+                ", 95% interval [" + interval[0] + ", " + interval[1] + "]" +
+                ", relative error " + estimator.getRelativeError());
+    }
+
+    /**
+     * Altitude levels spaced evenly on a log scale
+     *
+     * @param top - highest level in m
+     * @param bottom - lowest level in m
+     * @param count - number of levels
+     * @return the levels, highest first
+     */
+    public static double[] geometricLevels(double top, double bottom, int count)
+    {
+        double[] levels = new double[count];
+        for(int k = 0; k < count; k++)
+        {
+            levels[k] = count == 1 ? top : top*Math.pow(bottom/top, (double)k/(count - 1));
+        }
+        return levels;
+    }
+
+    /**
+     * Create an estimator
+     *
+     * @param planet - the planet - each lander gets its own copy
+     * @param specs - specifications of the lander
+     * @param factory - makes a controller for each replica
+     * @param particles - landers in each replica
+     * @param levels - altitudes to resample at in m, highest first
+     * @param lambda - how hard to push towards crashes - 0 for plain Monte Carlo
+     * @param threads - number of threads
+     */
+    public RareEventEstimator(Planet planet, LanderSpecs specs, ControllerFactory factory, int particles,
+            double[] levels, double lambda, int threads)
+    {
+        if(particles < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one lander and one thread");
+        }
+        for(int k = 1; k < levels.length; k++)
+        {
+            if(levels[k] >= levels[k-1])
+            {
+                throw new IllegalArgumentException("levels must go down");
+            }
+        }
+        this.planet = planet;
+        this.specs = specs;
+        this.factory = factory;
+        this.particles = particles;
+        this.levels = levels.clone();
+        this.lambda = lambda;
+        this.threads = threads;
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the estimate from each replica of the last run
+     */
+    public double[] getEstimates()
+    {
+        return estimates;
+    }
+
+    /**
+     * @return the crash probability - the average of the replicas
+     */
+    public double getProbability()
+    {
+        double total = 0.0;
+        for(double e: estimates)
+        {
+            total += e;
+        }
+        return total/estimates.length;
+    }
+
+    /**
+     * @return standard error of the probability, from the spread of the replicas
+     */
+    public double getStandardError()
+    {
+        if(estimates.length < 2)
+        {
+            return Double.NaN;
+        }
+        double mean = getProbability();
+        double sum = 0.0;
+        for(double e: estimates)
+        {
+            sum += (e - mean)*(e - mean);
+        }
+        return Math.sqrt(sum/(estimates.length - 1)/estimates.length);
+    }
+
+    /**
+     * @return standard error over probability
+     */
+    public double getRelativeError()
+    {
+        return getStandardError()/getProbability();
+    }
+
+    /**
+     * @return a normal 95% confidence interval for the probability, clipped at 0
+     */
+    public double[] getConfidenceInterval()
+    {
+        double p = getProbability();
+        double e = getStandardError();
+        return new double[] {Math.max(0.0, p - Z95*e), p + Z95*e};
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Run independent replicas
+     *
+     * @param replicas - number of replicas
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public void run(final int replicas) throws ControllerException, InterruptedException
+    {
+        if(replicas < 1)
+        {
+            throw new IllegalArgumentException("need at least one replica");
+        }
+        estimates = new double[replicas];
+
+        final AtomicInteger next = new AtomicInteger(0);
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for(int t = 0; t < Math.min(threads, replicas); t++)
+        {
+            workers.add(new Callable<Void>()
+            {
+                public Void call() throws ControllerException
+                {
+                    Controller controller = factory.create(planet, specs);
+                    Lander[] current = population(controller);
+                    Lander[] spare = population(controller);
+                    for(int r = next.getAndIncrement(); r < replicas; r = next.getAndIncrement())
+                    {
+                        estimates[r] = replica(current, spare,
+                                new Random(seed ^ (r + 1)*0x9E3779B97F4A7C15L));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for(Future<Void> f: pool.invokeAll(workers))
+            {
+                f.get();
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private Lander[] population(Controller controller)
+    {
+        Lander[] landers = new Lander[particles];
+        for(int i = 0; i < particles; i++)
+        {
+            Planet own = new Planet(planet.getGravity(), planet.getViscocity(), planet.getTurbulence());
+            landers[i] = new Lander(own, controller, specs, 0);
+        }
+        return landers;
+    }
+
+    /**
+     * One replica - fly the population down through the levels, resampling at each
+     *
+     * @return this replica's estimate of the crash probability
+     */
+    private double replica(Lander[] current, Lander[] spare, Random random) throws ControllerException
+    {
+        double[] score = new double[particles];
+        double[] spareScore = new double[particles];
+        double[] logWeight = new double[particles];
+        double[] weight = new double[particles];
+        int[] parent = new int[particles];
+
+        for(int i = 0; i < particles; i++)
+        {
+            current[i].reset();
+            current[i].getPlanet().setSeed(random.nextLong());
+        }
+        double startScore = score(current[0]);
+        Arrays.fill(score, startScore);
+
+        double logZ = 0.0;
+        for(double level: levels)
+        {
+            double largest = Double.NEGATIVE_INFINITY;
+            for(int i = 0; i < particles; i++)
+            {
+                fly(current[i], level);
+                double s = score(current[i]);
+                logWeight[i] += lambda*(s - score[i]);
+                largest = Math.max(largest, logWeight[i]);
+                score[i] = s;
+            }
+
+            // weights relative to the largest so they cannot overflow
+            double total = 0.0;
+            double squares = 0.0;
+            for(int i = 0; i < particles; i++)
+            {
+                weight[i] = Math.exp(logWeight[i] - largest);
+                total += weight[i];
+                squares += weight[i]*weight[i];
+            }
+            if(total*total/squares >= RESAMPLE_BELOW*particles)
+            {
+                continue;
+            }
+
+            logZ += largest + Math.log(total/particles);
+            resample(weight, total, parent, random);
+            for(int i = 0; i < particles; i++)
+            {
+                spare[i].copyState(current[parent[i]]);
+                spare[i].getPlanet().setSeed(random.nextLong());
+                spareScore[i] = score[parent[i]];
+            }
+            Lander[] swap = current; current = spare; spare = swap;
+            double[] swapScore = score; score = spareScore; spareScore = swapScore;
+            Arrays.fill(logWeight, 0.0);
+        }
+
+        double estimate = 0.0;
+        for(int i = 0; i < particles; i++)
+        {
+            fly(current[i], 0.0);
+            if(current[i].hasCrashed())
+            {
+                estimate += Math.exp(logZ + logWeight[i] - lambda*(score[i] - startScore));
+            }
+        }
+        return estimate/particles;
+    }
+
+    private static void fly(Lander lander, double level) throws ControllerException
+    {
+        while(lander.getHeight() > level && lander.step())
+        {
+        }
+    }
+
+    /**
+     * How near a lander is to crashing - above 1 on the ground is a crash.
+     * High up the descent is still to be braked, so the vertical speed
+     * counts for no more than the safe landing speed, while the drift,
+     * which the controller hardly corrects, counts in full. The two are
+     * added rather than combined as a vector so the score grows in step
+     * with the drift; a score that grew with its square would let the
+     * weights outrun how rarely large drifts happen.
+     */
+    private double score(Lander lander)
+    {
+        double safe = specs.getSafeLandingSpeed();
+        double speedY = Math.min(lander.getSpeedY(), safe);
+        double speed = Math.abs(lander.getSpeedX()) + speedY;
+        double tilt = Math.abs(Math.IEEEremainder(lander.getRotation(), 2.0*Math.PI));
+        return Math.max(speed/safe, tilt/CRASH_ROTATION);
+    }
+
+    /**
+     * Systematic resampling - one random offset, then evenly spaced picks
+     * along the cumulative weights
+     */
+    private void resample(double[] weight, double total, int[] parent, Random random)
+    {
+        double step = total/particles;
+        double u = random.nextDouble()*step;
+        double cumulative = weight[0];
+        int j = 0;
+        for(int i = 0; i < particles; i++)
+        {
+            while(u > cumulative && j < particles - 1)
+            {
+                j++;
+                cumulative += weight[j];
+            }
+            parent[i] = j;
+            u += step;
+        }
+    }
+}
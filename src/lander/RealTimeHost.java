@@ -0,0 +1,307 @@
+package lander;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lander.controller.ControllerException;
+import lander.controller.ControllerFactory;
+import lander.controller.PiraveenController;
+import planet.Planet;
+
+/**
+   Flies many landers at once in real time, each stepping every delay ms
+   as its own run loop would, but with no thread of its own - every step is
+   a task on a shared scheduler.
+
+   All the landers keep time from one shared start. Each step is due a
+   whole number of periods after it, whenever the step before actually
+   ran, so late steps don't push the later ones back and the timing
+   doesn't drift. A lander that falls more than a period behind gives up
+   the steps it has missed rather than rushing through them. How late each
+   step starts is kept in a histogram for each scheduler thread, so the
+   lag percentiles show how many landers a machine can keep in real time.
+*/
+public class RealTimeHost
+{
+    private ScheduledExecutorService scheduler;
+    private List<Pilot> pilots = new ArrayList<Pilot>();
+    private long epoch;
+    private CountDownLatch landed;
+
+    private final List<LatencyHistogram> lags = new ArrayList<LatencyHistogram>();
+    private final ThreadLocal<LatencyHistogram> lag = new ThreadLocal<LatencyHistogram>()
+    {
+        protected LatencyHistogram initialValue()
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            synchronized(lags)
+            {
+                lags.add(histogram);
+            }
+            return histogram;
+        }
+    };
+    private AtomicLong steps = new AtomicLong();
+    private AtomicLong missed = new AtomicLong();
+
+    /**
+     * Fly swarms of Mars landers in real time and report how late their
+     * steps were
+     *
+     * @param args - -d delay in ms between steps (default 20), then the swarm sizes (default 100 1000 4000)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int delay = 20;
+        List<Integer> sizes = new ArrayList<Integer>();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equals("-d"))
+            {
+                delay = Integer.parseInt(args[++i]);
+            }
+            else
+            {
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if(sizes.isEmpty())
+        {
+            sizes.add(100);
+            sizes.add(1000);
+            sizes.add(4000);
+        }
+
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        ControllerFactory factory = PiraveenController.FACTORY;
+        for(int count: sizes)
+        {
+            RealTimeHost host = new RealTimeHost(LanderClock.getSharedScheduler());
+            for(int i = 0; i < count; i++)
+            {
+                Planet own = new Planet(mars.getGravity(), mars.getViscocity(), mars.getTurbulence());
+                own.setSeed(i);
+                host.add(new Lander(own, factory.create(own, specs), specs, delay));
+            }
+
+            long start = System.nanoTime();
+            host.start();
+            host.awaitLanded();
+            double seconds = (System.nanoTime() - start)/1e9;
+
+            LatencyHistogram lag = host.getLag();
+            System.out.println(String.format("%5d landers every %d ms: %.1f s, %d steps, %d missed, lag p50 = %.2f ms, " +
+                    "p99 = %.2f ms, p99.9 = %.2f ms, max = %.2f ms",
+                    count, delay, seconds, host.getSteps(), host.getMissed(),
+                    lag.getValueAtPercentile(50.0)/1e6, lag.getValueAtPercentile(99.0)/1e6,
+                    lag.getValueAtPercentile(99.9)/1e6, lag.getMax()/1e6));
+        }
+    }
+
+    /**
+     * Create a host
+     *
+     * @param scheduler - runs every lander's steps
+     */
+    public RealTimeHost(ScheduledExecutorService scheduler)
+    {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Add a lander, to step every delay ms it was made with - or every
+     * control period if that is 0
+     *
+     * @param lander - the lander
+     */
+    public synchronized void add(Lander lander)
+    {
+        if(landed != null)
+        {
+            throw new IllegalStateException("already started");
+        }
+        long period = lander.getDelay() > 0
+                ? TimeUnit.MILLISECONDS.toNanos(lander.getDelay())
+                : (long)(lander.getControlPeriod()*1e9);
+        pilots.add(new Pilot(lander, period));
+    }
+
+    /**
+     * Start every lander, their first steps spread over their periods
+     */
+    public synchronized void start()
+    {
+        landed = new CountDownLatch(pilots.size());
+        epoch = System.nanoTime();
+        for(int i = 0; i < pilots.size(); i++)
+        {
+            Pilot pilot = pilots.get(i);
+            pilot.start(epoch + pilot.period*i/pilots.size());
+        }
+    }
+
+    /**
+     * Wait for every lander to land or stop
+     *
+     * @throws InterruptedException
+     */
+    public void awaitLanded() throws InterruptedException
+    {
+        landed.await();
+    }
+
+    /**
+     * Stop every lander, leaving them where they are - nothing to do if not started
+     */
+    public synchronized void stop()
+    {
+        if(landed == null)
+        {
+            return;
+        }
+        for(Pilot pilot: pilots)
+        {
+            pilot.finish();
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * @return how late steps started, in ns, over every lander and thread
+     */
+    public LatencyHistogram getLag()
+    {
+        LatencyHistogram total = new LatencyHistogram();
+        synchronized(lags)
+        {
+            for(LatencyHistogram histogram: lags)
+            {
+                total.add(histogram);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return steps taken so far
+     */
+    public long getSteps()
+    {
+        return steps.get();
+    }
+
+    /**
+     * @return steps given up because a lander was more than a period behind
+     */
+    public long getMissed()
+    {
+        return missed.get();
+    }
+
+    /**
+     * One lander and when its next step is due - only one of its steps is
+     * ever scheduled at a time, and steps hold the pilot's lock, so finish
+     * waits for a step in progress and no step starts after it. Each pilot
+     * counts down landed exactly once.
+     */
+    private class Pilot implements Runnable
+    {
+        private Lander lander;
+        private long period;
+        private long due;
+        private boolean finished = false;
+        private ScheduledFuture<?> future;
+        private AtomicBoolean counted = new AtomicBoolean();
+
+        Pilot(Lander lander, long period)
+        {
+            this.lander = lander;
+            this.period = period;
+        }
+
+        synchronized void start(long first)
+        {
+            due = first;
+            schedule();
+        }
+
+        private void schedule()
+        {
+            future = scheduler.schedule(this, due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        synchronized void finish()
+        {
+            if(!finished)
+            {
+                finished = true;
+                if(future != null)
+                {
+                    future.cancel(false);
+                }
+                done();
+            }
+        }
+
+        private void done()
+        {
+            if(counted.compareAndSet(false, true))
+            {
+                landed.countDown();
+            }
+        }
+
+        public synchronized void run()
+        {
+            if(finished)
+            {
+                // a step that was already under way when it was cancelled
+                done();
+                return;
+            }
+
+            long start = System.nanoTime();
+            lag.get().record(start - due);
+
+            boolean flying;
+            try
+            {
+                flying = lander.step();
+            }
+            catch(ControllerException ce)
+            {
+                ce.printStackTrace(System.out);
+                flying = false;
+            }
+            steps.incrementAndGet();
+
+            due += period;
+            long behind = start - due;
+            if(behind > 0)
+            {
+                // a whole period or more late - skip what was missed rather than catch up
+                long skip = behind/period + 1;
+                due += skip*period;
+                missed.addAndGet(skip);
+            }
+
+            if(flying)
+            {
+                schedule();
+            }
+            else
+            {
+                finished = true;
+                done();
+            }
+        }
+    }
+}
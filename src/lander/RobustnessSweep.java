@@ -0,0 +1,289 @@
+package lander;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import lander.controller.ControllerException;
+import lander.controller.ControllerFactory;
+import lander.controller.PiraveenController;
+import planet.Planet;
+
+/**
+   Tries a controller from many starting conditions to find where it fails.
+
+   Each point of a design fixes the start height, vertical and horizontal
+   speed, lateral offset and rotation, and is flown a fixed number of times
+   with different turbulence. The result for each point is the average
+   fitness and the fraction of runs that crashed. Points are shared out
+   between threads, each with its own planet, lander and controller, and
+   the turbulence for each run is seeded from the point and run number so
+   results do not depend on the number of threads.
+*/
+public class RobustnessSweep
+{
+    public static final String[] PARAMETERS = {"startHeight", "speedY", "speedX", "location", "rotation"};
+
+    private Planet planet;
+    private LanderSpecs specs;
+    private ControllerFactory factory;
+    private int reps;
+    private int threads;
+    private long seed = 0;
+
+    private double[] fitness;
+    private double[] crashRate;
+
+    /**
+     * Sweep the Piraveen controller on Mars
+     *
+     * @param args -n 200 for a Latin hypercube of 200 points, or -g 5 for a grid of 5 values per parameter,
+     *             -r 20 runs per point, -s 1 to seed the design and turbulence, -o file.csv for the map
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int samples = 200;
+        int gridPoints = 0;
+        int reps = 20;
+        long seed = 1;
+        File output = new File("robustness.csv");
+        int i = 0;
+        while(i < args.length)
+        {
+            if(args[i].equalsIgnoreCase("-n"))
+            {
+                samples = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-g"))
+            {
+                gridPoints = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-r"))
+            {
+                reps = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-s"))
+            {
+                seed = Long.parseLong(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-o"))
+            {
+                output = new File(args[++i]);
+            }
+            i++;
+        }
+
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        double terminal = Lander.terminalVelocity(mars, specs);
+
+        double[] min = {0.6*specs.getStartHeight(), 0.5*terminal, -10.0, -50.0, -0.3};
+        double[] max = {1.4*specs.getStartHeight(), 1.0*terminal, 10.0, 50.0, 0.3};
+        double[][] design;
+        if(gridPoints > 0)
+        {
+            int[] points = new int[min.length];
+            Arrays.fill(points, gridPoints);
+            design = ExperimentDesign.grid(min, max, points);
+        }
+        else
+        {
+            design = ExperimentDesign.latinHypercube(min, max, samples, new Random(seed));
+        }
+
+        RobustnessSweep sweep = new RobustnessSweep(mars, specs, PiraveenController.FACTORY, reps,
+                Runtime.getRuntime().availableProcessors());
+        sweep.setSeed(seed);
+
+        long start = System.currentTimeMillis();
+        sweep.run(design);
+        long elapsed = System.currentTimeMillis() - start;
+        sweep.write(output, design);
+
+        double totalFitness = 0.0;
+        double totalCrashes = 0.0;
+        int failing = 0;
+        int worst = 0;
+        for(int p = 0; p < design.length; p++)
+        {
+            totalFitness += sweep.getFitness()[p];
+            totalCrashes += sweep.getCrashRate()[p];
+            if(sweep.getCrashRate()[p] > 0.0) failing++;
+            if(sweep.getFitness()[p] < sweep.getFitness()[worst]) worst = p;
+        }
+        System.out.println(design.length + " points x " + reps + " runs in " + elapsed + " ms");
+        System.out.println("Average fitness = " + totalFitness/design.length +
+                ", crash rate = " + totalCrashes/design.length + ", " + failing + " points with crashes");
+        StringBuilder worstPoint = new StringBuilder("Worst point:");
+        for(int d = 0; d < PARAMETERS.length; d++)
+        {
+            worstPoint.append(" ").append(PARAMETERS[d]).append("=").append(design[worst][d]);
+        }
+        System.out.println(worstPoint + " fitness=" + sweep.getFitness()[worst]);
+        System.out.println("Map written to " + output);
+    }
+
+    /**
+     * Create a sweep
+     *
+     * @param planet - the planet - each thread gets its own copy
+     * @param specs - specifications of the lander
+     * @param factory - makes a controller for each thread
+     * @param reps - runs per point
+     * @param threads - number of threads
+     */
+    public RobustnessSweep(Planet planet, LanderSpecs specs, ControllerFactory factory, int reps, int threads)
+    {
+        if(reps < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one run and one thread");
+        }
+        this.planet = planet;
+        this.specs = specs;
+        this.factory = factory;
+        this.reps = reps;
+        this.threads = threads;
+    }
+
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return average fitness at each point of the last run
+     */
+    public double[] getFitness()
+    {
+        return fitness;
+    }
+
+    /**
+     * @return fraction of crashed runs at each point of the last run
+     */
+    public double[] getCrashRate()
+    {
+        return crashRate;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Fly every point of a design
+     *
+     * @param design - one row per point, with a column for each of PARAMETERS - rotation in radians
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public void run(final double[][] design) throws ControllerException, InterruptedException
+    {
+        for(double[] point: design)
+        {
+            if(point.length != PARAMETERS.length)
+            {
+                throw new IllegalArgumentException("each point needs " + PARAMETERS.length + " values");
+            }
+        }
+
+        fitness = new double[design.length];
+        crashRate = new double[design.length];
+
+        final AtomicInteger next = new AtomicInteger(0);
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+        for(int t = 0; t < threads; t++)
+        {
+            workers.add(new Callable<Void>()
+            {
+                public Void call() throws ControllerException
+                {
+                    Planet own = new Planet(planet.getGravity(), planet.getViscocity(), planet.getTurbulence());
+                    Lander lander = new Lander(own, factory.create(own, specs), specs, 0);
+                    for(int p = next.getAndIncrement(); p < design.length; p = next.getAndIncrement())
+                    {
+                        fly(lander, own, p, design[p]);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for(Future<Void> f: pool.invokeAll(workers))
+            {
+                f.get();
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void fly(Lander lander, Planet own, int p, double[] point) throws ControllerException
+    {
+        double total = 0.0;
+        int crashes = 0;
+        for(int rep = 0; rep < reps; rep++)
+        {
+            lander.reset(point[0], point[1], point[3], point[2], point[4], 0.0, specs.getFuelCapacity());
+            own.setSeed(seed ^ ((long)p*reps + rep)*0x9E3779B97F4A7C15L);
+            while(lander.step())
+            {
+            }
+            total += lander.getFitness();
+            if(lander.hasCrashed()) crashes++;
+        }
+        fitness[p] = total/reps;
+        crashRate[p] = (double)crashes/reps;
+    }
+
+    /**
+     * Write the map of the last run as CSV, one line per point
+     *
+     * @param file - where to write it
+     * @param design - the design that was run
+     * @throws IOException
+     */
+    public void write(File file, double[][] design) throws IOException
+    {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try
+        {
+            for(String parameter: PARAMETERS)
+            {
+                out.print(parameter);
+                out.print(',');
+            }
+            out.println("fitness,crashRate");
+            for(int p = 0; p < design.length; p++)
+            {
+                for(double value: design[p])
+                {
+                    out.print((float)value);
+                    out.print(',');
+                }
+                out.print((float)fitness[p]);
+                out.print(',');
+                out.println((float)crashRate[p]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package lander;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import lander.controller.CommandController;
+import lander.controller.ControllerException;
+import lander.controller.LookupTableController;
+import planet.Planet;
+
+/**
+   Solves the vertical descent exactly enough to make a near-optimal baseline.
+
+   The state is (height, speedY, fuel) on a regular grid, with no drift,
+   rotation or turbulence. Every grid point and thrust level is first pushed
+   through the Lander's own dynamics for holdSteps control periods, landing
+   in a terminal reward of getFitness() or a point between grid points.
+   Value iteration then runs over those transitions, interpolating values
+   trilinearly, until the largest change falls below the tolerance. Both
+   stages are split across threads in slabs of heights.
+
+   The policy comes out as a LookupTableController giving the same thrust on
+   both engines.
+*/
+public class ValueIterationSolver
+{
+    // height the ground row is simulated at, as a fraction of a grid step
+    private static final double GROUND_CLEARANCE = 0.1;
+
+    private Planet planet;
+    private LanderSpecs specs;
+
+    private int heights;
+    private int speeds;
+    private int fuels;
+    private double maxHeight;
+    private double minSpeed;
+    private double maxSpeed;
+    private double maxFuel;
+    private double[] actions;       // thrust per engine in N
+    private int holdSteps;
+    private int threads;
+
+    private double discount = 0.999;
+    private double tolerance = 1e-3;
+    private int maxIterations = 2000;
+
+    private int iterations;
+    private double residual;
+
+    // transitions, indexed by state*actions + action - next state in grid units, or NaN if landed
+    private float[] nextHeight;
+    private float[] nextSpeed;
+    private float[] nextFuel;
+    private float[] reward;
+
+    /**
+     * Solve the Mars descent and try the policy out
+     *
+     * @param args - optionally a file to save the policy to
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        ValueIterationSolver solver = getMarsSolver();
+
+        long start = System.currentTimeMillis();
+        LookupTableController policy = solver.solve();
+        System.out.println("Solved in " + (System.currentTimeMillis() - start) + " ms, " +
+                solver.getIterations() + " iterations, residual " + solver.getResidual());
+
+        if(args.length > 0)
+        {
+            policy.save(new File(args[0]));
+        }
+
+        LanderEvaluator eval = LanderEvaluator.getMarsLanderEvaluator(policy, false, 100);
+        eval.run();
+        System.out.println("Average fitness = " + eval.getFitness());
+    }
+
+    /**
+     * Create a solver for the Mars lander on Mars with a sensible grid
+     *
+     * @return the solver
+     */
+    public static ValueIterationSolver getMarsSolver()
+    {
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+
+        // thrust levels as multiples of the thrust that holds a full lander still
+        double hover = 0.5*(specs.getEmptyMass() + specs.getFuelCapacity())*mars.getGravity();
+        double[] multiples = {0.0, 0.5, 0.8, 1.0, 1.2, 1.5, 2.0, 3.0, 5.0, 10.0, 20.0};
+        double[] actions = new double[multiples.length];
+        for(int i = 0; i < actions.length; i++)
+        {
+            actions[i] = Math.min(specs.getMaxThrust(), multiples[i]*hover);
+        }
+
+        return new ValueIterationSolver(mars, specs, 76, 101, 20, actions, 10,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a solver
+     *
+     * @param planet - the planet - its turbulence is ignored
+     * @param specs - specifications of the lander
+     * @param heights - grid points from the ground to the start height
+     * @param speeds - grid points from -2 safe landing speeds to terminal velocity
+     * @param fuels - grid points from empty to full
+     * @param actions - thrust levels to choose from, per engine in N
+     * @param holdSteps - control periods each choice is held for
+     * @param threads - threads to solve with
+     */
+    public ValueIterationSolver(Planet planet, LanderSpecs specs, int heights, int speeds, int fuels,
+            double[] actions, int holdSteps, int threads)
+    {
+        if(heights < 2 || speeds < 2 || fuels < 2)
+        {
+            throw new IllegalArgumentException("every axis needs at least two grid points");
+        }
+        if(actions.length < 1 || holdSteps < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one action, hold step and thread");
+        }
+
+        this.planet = new Planet(planet.getGravity(), planet.getViscocity(), 0.0);
+        this.specs = specs;
+        this.heights = heights;
+        this.speeds = speeds;
+        this.fuels = fuels;
+        this.actions = actions.clone();
+        this.holdSteps = holdSteps;
+        this.threads = threads;
+
+        maxHeight = specs.getStartHeight();
+        minSpeed = -2.0*specs.getSafeLandingSpeed();
+        maxSpeed = Lander.terminalVelocity(planet, specs);
+        maxFuel = specs.getFuelCapacity();
+    }
+
+    public void setDiscount(double discount)
+    {
+        this.discount = discount;
+    }
+
+    public void setTolerance(double tolerance)
+    {
+        this.tolerance = tolerance;
+    }
+
+    public void setMaxIterations(int maxIterations)
+    {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return iterations taken by the last solve
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     * @return largest change in value in the last iteration
+     */
+    public double getResidual()
+    {
+        return residual;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Find the policy
+     *
+     * @return the policy as a lookup table
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public LookupTableController solve() throws ControllerException, InterruptedException
+    {
+        final int states = heights*speeds*fuels;
+        final int transitions = states*actions.length;
+        nextHeight = new float[transitions];
+        nextSpeed = new float[transitions];
+        nextFuel = new float[transitions];
+        reward = new float[transitions];
+
+        final float[][] value = {new float[states], new float[states]};
+        final int[] policy = new int[states];
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            // work out every transition once
+            List<Callable<Double>> simulate = new ArrayList<Callable<Double>>();
+            for(int t = 0; t < threads; t++)
+            {
+                final int from = heights*t/threads;
+                final int to = heights*(t+1)/threads;
+                simulate.add(new Callable<Double>()
+                {
+                    public Double call() throws ControllerException
+                    {
+                        simulate(from, to);
+                        return 0.0;
+                    }
+                });
+            }
+            invokeAll(pool, simulate);
+
+            // then sweep the values until they settle
+            final int[] current = {0};
+            List<Callable<Double>> sweep = new ArrayList<Callable<Double>>();
+            for(int t = 0; t < threads; t++)
+            {
+                final int from = heights*t/threads*speeds*fuels;
+                final int to = heights*(t+1)/threads*speeds*fuels;
+                sweep.add(new Callable<Double>()
+                {
+                    public Double call()
+                    {
+                        return sweep(value[current[0]], value[1 - current[0]], policy, from, to);
+                    }
+                });
+            }
+
+            iterations = 0;
+            residual = Double.POSITIVE_INFINITY;
+            while(residual > tolerance && iterations < maxIterations)
+            {
+                residual = 0.0;
+                for(double r: invokeAll(pool, sweep))
+                {
+                    residual = Math.max(residual, r);
+                }
+                current[0] = 1 - current[0];
+                iterations++;
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+            nextHeight = nextSpeed = nextFuel = reward = null;
+        }
+
+        float[] thrust = new float[states];
+        for(int s = 0; s < states; s++)
+        {
+            thrust[s] = (float)actions[policy[s]];
+        }
+        return new LookupTableController(0.0, maxHeight, heights, minSpeed, maxSpeed, speeds,
+                0.0, maxFuel, fuels, thrust, thrust);
+    }
+
+    private static List<Double> invokeAll(ExecutorService pool, List<Callable<Double>> tasks)
+            throws ControllerException, InterruptedException
+    {
+        List<Double> results = new ArrayList<Double>();
+        try
+        {
+            for(Future<Double> f: pool.invokeAll(tasks))
+            {
+                results.add(f.get());
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Push every state in a slab of heights through every action
+     */
+    private void simulate(int fromHeight, int toHeight) throws ControllerException
+    {
+        Planet calm = new Planet(planet.getGravity(), planet.getViscocity(), 0.0);
+        CommandController command = new CommandController();
+        Lander lander = new Lander(calm, command, specs, 0);
+
+        double heightStep = maxHeight/(heights - 1);
+        double speedStep = (maxSpeed - minSpeed)/(speeds - 1);
+        double fuelStep = maxFuel/(fuels - 1);
+
+        for(int h = fromHeight; h < toHeight; h++)
+        {
+            for(int v = 0; v < speeds; v++)
+            {
+                for(int f = 0; f < fuels; f++)
+                {
+                    int state = (h*speeds + v)*fuels + f;
+                    for(int a = 0; a < actions.length; a++)
+                    {
+                        int t = state*actions.length + a;
+
+                        // a lander on the ground row is still in the air, or it would not be asking
+                        double height = h == 0 ? GROUND_CLEARANCE*heightStep : h*heightStep;
+                        lander.reset(height, minSpeed + v*speedStep, 0.0, 0.0, 0.0, 0.0, f*fuelStep);
+                        command.setThrust(actions[a], actions[a]);
+
+                        boolean going = true;
+                        for(int step = 0; step < holdSteps && going; step++)
+                        {
+                            going = lander.step();
+                        }
+
+                        if(going)
+                        {
+                            nextHeight[t] = (float)clamp(lander.getHeight()/heightStep, heights);
+                            nextSpeed[t] = (float)clamp((lander.getSpeedY() - minSpeed)/speedStep, speeds);
+                            nextFuel[t] = (float)clamp(lander.getFuel()/fuelStep, fuels);
+                        }
+                        else
+                        {
+                            nextHeight[t] = Float.NaN;
+                            reward[t] = (float)lander.getFitness();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static double clamp(double gridValue, int points)
+    {
+        return Math.max(0.0, Math.min(points - 1, gridValue));
+    }
+
+    /**
+     * One Bellman sweep over a range of states
+     *
+     * @return the largest change in value
+     */
+    private double sweep(float[] value, float[] next, int[] policy, int from, int to)
+    {
+        double change = 0.0;
+        for(int s = from; s < to; s++)
+        {
+            double best = Double.NEGATIVE_INFINITY;
+            int bestAction = 0;
+            for(int a = 0; a < actions.length; a++)
+            {
+                int t = s*actions.length + a;
+                double q = Float.isNaN(nextHeight[t]) ? reward[t] :
+                        discount*interpolate(value, nextHeight[t], nextSpeed[t], nextFuel[t]);
+                if(q > best)
+                {
+                    best = q;
+                    bestAction = a;
+                }
+            }
+            next[s] = (float)best;
+            policy[s] = bestAction;
+            change = Math.max(change, Math.abs(best - value[s]));
+        }
+        return change;
+    }
+
+    private double interpolate(float[] value, float h, float v, float f)
+    {
+        int h0 = Math.min((int)h, heights - 2);
+        int v0 = Math.min((int)v, speeds - 2);
+        int f0 = Math.min((int)f, fuels - 2);
+        float dh = h - h0;
+        float dv = v - v0;
+        float df = f - f0;
+
+        int i = (h0*speeds + v0)*fuels + f0;
+        int hs = speeds*fuels;
+        int vs = fuels;
+
+        float c00 = value[i]*(1 - df) + value[i+1]*df;
+        float c01 = value[i+vs]*(1 - df) + value[i+vs+1]*df;
+        float c10 = value[i+hs]*(1 - df) + value[i+hs+1]*df;
+        float c11 = value[i+hs+vs]*(1 - df) + value[i+hs+vs+1]*df;
+
+        float c0 = c00*(1 - dv) + c01*dv;
+        float c1 = c10*(1 - dv) + c11*dv;
+
+        return c0*(1 - dh) + c1*dh;
+    }
+}
@@ -0,0 +1,57 @@
+package lander.controller;
+
+import java.awt.geom.Point2D;
+
+
+/**
+   Gives a batch view of a plain controller by calling getThrust once per state.
+*/
+public class BatchAdapter implements BatchController
+{
+    private Controller controller;
+
+    /**
+     * Get a batch view of a controller
+     *
+     * @param controller - the controller
+     * @return the controller itself if it already does batches, otherwise an adapter
+     */
+    public static BatchController wrap(Controller controller)
+    {
+        if(controller instanceof BatchController)
+        {
+            return (BatchController)controller;
+        }
+
+        return new BatchAdapter(controller);
+    }
+
+    /**
+     * Create an adapter
+     *
+     * @param controller - the controller to call for each state
+     */
+    public BatchAdapter(Controller controller)
+    {
+        this.controller = controller;
+    }
+
+    public Point2D.Double getThrust(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel) throws ControllerException
+    {
+        return controller.getThrust(height, speedY, location, speedX, rotation, rotationSpeed, fuel);
+    }
+
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        for(int i = 0; i < count; i++)
+        {
+            Point2D.Double thrust = controller.getThrust(height[i], speedY[i], location[i], speedX[i],
+                    rotation[i], rotationSpeed[i], fuel[i]);
+            thrustLeft[i] = thrust.x;
+            thrustRight[i] = thrust.y;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lander.controller;
+
+
+/**
+   A lander controller that can work out the thrust for many lander states
+   in one call. The states are passed as primitive columns, one array per
+   input, so a batch physics kernel pays for a single call per step rather
+   than one per lander.
+
+   Use BatchAdapter.wrap to get a batch view of any plain Controller.
+*/
+
+public interface BatchController extends Controller
+{
+    /**
+     * Work out the thrust for the first count entries of the input columns.
+     * Units are the same as for Controller.getThrust.
+     *
+     * @param height - distance above ground in m
+     * @param speedY - rate of descent in m/s
+     * @param location - distance left (-ve) or right (+ve) or target
+     * @param speedX - speed left or right
+     * @param rotation - angle of rotation in degrees
+     * @param rotationSpeed - how fast the lander is spinning in degrees/s
+     * @param fuel - amount of fuel left in kg
+     * @param thrustLeft - filled with the left thrust in N
+     * @param thrustRight - filled with the right thrust in N
+     * @param count - number of states to process
+     * @throws ControllerException
+     */
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException;
+}
@@ -0,0 +1,366 @@
+package lander.controller;
+
+import lander.Lander;
+import lander.LanderSpecs;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import planet.Planet;
+
+/**
+   Wraps an expensive controller with a memo of its answers.
+
+   The inputs the fuzzy controllers steer by - height/maxHeight, speedY/maxSpeed,
+   location/50 and rotation/50 - are snapped to a grid with the given number of
+   cells per unit, and the wrapped controller is asked once per grid cell, at the
+   cell centre. The other inputs (speedX, rotationSpeed, fuel) are passed through
+   on a miss but are not part of the key, so only wrap controllers that do not
+   steer by them. Answers are kept in an open-addressing table of primitive
+   arrays holding at most maxEntries cells; when it is full the CLOCK policy
+   picks a cell that has not been used since the hand last passed it.
+
+   Like the fuzzy controllers this is not thread safe - use one per thread.
+*/
+public class CachingController implements BatchController
+{
+    // the same scales PiraveenController uses for location and rotation
+    private static final double LOCATION_SCALE = 50.0;
+    private static final double ROTATION_SCALE = 50.0;
+
+    // slot states
+    private static final byte EMPTY = 0;
+    private static final byte CACHED = 1;
+    private static final byte REFERENCED = 2;
+
+    private Controller controller;
+    private BatchController batch;
+
+    private double maxHeight;
+    private double maxSpeed;
+    private double levels;      // grid cells per normalised unit
+
+    private int maxEntries;
+    private int mask;
+    private long[] keys;
+    private double[] cachedLeft;
+    private double[] cachedRight;
+    private byte[] states;
+    private int size = 0;
+    private int hand = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    // scratch columns for the misses in a batch
+    private int[] missIndex = new int[0];
+    private long[] missKey = new long[0];
+    private double[][] missColumns = new double[9][0];
+
+    /**
+     * Create a caching wrapper
+     *
+     * @param controller - the controller to ask on a miss
+     * @param planet - the planet, used to scale speeds
+     * @param specs - the specs of the lander, used to scale height
+     * @param levels - grid cells per normalised unit - more cells, less error
+     * @param maxEntries - the most grid cells to remember
+     */
+    public CachingController(Controller controller, Planet planet, LanderSpecs specs, int levels, int maxEntries)
+    {
+        if(levels < 1 || levels > Short.MAX_VALUE/2)
+        {
+            throw new IllegalArgumentException("levels must be between 1 and " + Short.MAX_VALUE/2);
+        }
+        if(maxEntries < 1)
+        {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+
+        this.controller = controller;
+        this.batch = BatchAdapter.wrap(controller);
+
+        maxHeight = specs.getStartHeight();
+        maxSpeed = Lander.terminalVelocity(planet, specs);
+        this.levels = levels;
+
+        // keep the table at most half full so probe runs stay short
+        this.maxEntries = maxEntries;
+        int capacity = Integer.highestOneBit(Math.max(2, maxEntries)*2 - 1) << 1;
+        mask = capacity - 1;
+        keys = new long[capacity];
+        cachedLeft = new double[capacity];
+        cachedRight = new double[capacity];
+        states = new byte[capacity];
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public Point2D.Double getThrust(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel) throws ControllerException
+    {
+        int qh = quantize(height/maxHeight);
+        int qs = quantize(speedY/maxSpeed);
+        int ql = quantize(location/LOCATION_SCALE);
+        int qr = quantize(rotation/ROTATION_SCALE);
+        long key = key(qh, qs, ql, qr);
+
+        int slot = find(key);
+        if(slot >= 0)
+        {
+            hits++;
+            return new Point2D.Double(cachedLeft[slot], cachedRight[slot]);
+        }
+
+        misses++;
+        Point2D.Double thrust = controller.getThrust(centre(qh)*maxHeight, centre(qs)*maxSpeed,
+                centre(ql)*LOCATION_SCALE, speedX, centre(qr)*ROTATION_SCALE, rotationSpeed, fuel);
+        insert(key, thrust.x, thrust.y);
+
+        return thrust;
+    }
+
+    /**
+     * Batch version of getThrust - hits are filled in from the table and the
+     * misses are passed on to the wrapped controller as one batch
+     */
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        ensureMissCapacity(count);
+        double[][] m = missColumns;
+
+        int missCount = 0;
+        for(int i = 0; i < count; i++)
+        {
+            int qh = quantize(height[i]/maxHeight);
+            int qs = quantize(speedY[i]/maxSpeed);
+            int ql = quantize(location[i]/LOCATION_SCALE);
+            int qr = quantize(rotation[i]/ROTATION_SCALE);
+            long key = key(qh, qs, ql, qr);
+
+            int slot = find(key);
+            if(slot >= 0)
+            {
+                hits++;
+                thrustLeft[i] = cachedLeft[slot];
+                thrustRight[i] = cachedRight[slot];
+            }
+            else
+            {
+                missIndex[missCount] = i;
+                missKey[missCount] = key;
+                m[0][missCount] = centre(qh)*maxHeight;
+                m[1][missCount] = centre(qs)*maxSpeed;
+                m[2][missCount] = centre(ql)*LOCATION_SCALE;
+                m[3][missCount] = speedX[i];
+                m[4][missCount] = centre(qr)*ROTATION_SCALE;
+                m[5][missCount] = rotationSpeed[i];
+                m[6][missCount] = fuel[i];
+                missCount++;
+            }
+        }
+
+        if(missCount == 0) return;
+
+        misses += missCount;
+        batch.getThrust(m[0], m[1], m[2], m[3], m[4], m[5], m[6], m[7], m[8], missCount);
+
+        for(int j = 0; j < missCount; j++)
+        {
+            int i = missIndex[j];
+            thrustLeft[i] = m[7][j];
+            thrustRight[i] = m[8][j];
+
+            // the same cell may miss more than once in a batch
+            if(find(missKey[j]) < 0)
+            {
+                insert(missKey[j], m[7][j], m[8][j]);
+            }
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    // Statistics
+
+    public long getHits()
+    {
+        return hits;
+    }
+
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    public long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * @return fraction of calls answered from the table, 0 if there have been no calls
+     */
+    public double getHitRate()
+    {
+        long calls = hits + misses;
+        return calls == 0 ? 0.0 : (double)hits/calls;
+    }
+
+    /**
+     * @return number of grid cells currently remembered
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    public void resetStatistics()
+    {
+        hits = misses = evictions = 0;
+    }
+
+    /**
+     * Forget every cached answer
+     */
+    public void clear()
+    {
+        Arrays.fill(states, EMPTY);
+        size = 0;
+        hand = 0;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    // Grid
+
+    private int quantize(double normalised)
+    {
+        double cell = Math.floor(normalised*levels);
+        return (int)Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, cell));
+    }
+
+    private double centre(int cell)
+    {
+        return (cell + 0.5)/levels;
+    }
+
+    private static long key(int qh, int qs, int ql, int qr)
+    {
+        return ((long)(qh & 0xFFFF) << 48) | ((long)(qs & 0xFFFF) << 32) | ((long)(ql & 0xFFFF) << 16) | (qr & 0xFFFF);
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    // Open-addressing table with linear probing
+
+    private int home(long key)
+    {
+        // murmur3 finaliser - the packed fields differ mostly in their low bits
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int)key & mask;
+    }
+
+    private int find(long key)
+    {
+        int slot = home(key);
+        while(states[slot] != EMPTY)
+        {
+            if(keys[slot] == key)
+            {
+                states[slot] = REFERENCED;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insert(long key, double left, double right)
+    {
+        if(size >= maxEntries)
+        {
+            evict();
+        }
+
+        int slot = home(key);
+        while(states[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        cachedLeft[slot] = left;
+        cachedRight[slot] = right;
+        states[slot] = CACHED;
+        size++;
+    }
+
+    /**
+     * Sweep the clock hand round, giving referenced cells a second chance,
+     * and remove the first cell that has not been used since the last sweep
+     */
+    private void evict()
+    {
+        while(true)
+        {
+            if(states[hand] == REFERENCED)
+            {
+                states[hand] = CACHED;
+            }
+            else if(states[hand] == CACHED)
+            {
+                remove(hand);
+                evictions++;
+                return;
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    /**
+     * Remove a slot, shifting later members of its probe run back so that
+     * lookups never stop early at the hole
+     */
+    private void remove(int slot)
+    {
+        int hole = slot;
+        int next = slot;
+        while(true)
+        {
+            next = (next + 1) & mask;
+            if(states[next] == EMPTY) break;
+
+            // an entry can only fill the hole if its home is not between the hole and itself
+            int h = home(keys[next]);
+            boolean between = hole <= next ? (hole < h && h <= next) : (hole < h || h <= next);
+            if(between) continue;
+
+            keys[hole] = keys[next];
+            cachedLeft[hole] = cachedLeft[next];
+            cachedRight[hole] = cachedRight[next];
+            states[hole] = states[next];
+            hole = next;
+        }
+        states[hole] = EMPTY;
+        size--;
+    }
+
+    private void ensureMissCapacity(int count)
+    {
+        if(missIndex.length >= count) return;
+
+        missIndex = new int[count];
+        missKey = new long[count];
+        for(int c = 0; c < missColumns.length; c++)
+        {
+            missColumns[c] = new double[count];
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package lander.controller;
+
+import java.awt.geom.Point2D;
+
+
+/**
+   A controller that gives whatever thrust it was last told to, for driving
+   a lander from outside - from a training tool, say.
+*/
+public class CommandController implements Controller
+{
+    private double thrustLeft = 0.0;
+    private double thrustRight = 0.0;
+
+    /**
+     * Set the thrust to give from now on
+     *
+     * @param thrustLeft - left thrust in N
+     * @param thrustRight - right thrust in N
+     */
+    public void setThrust(double thrustLeft, double thrustRight)
+    {
+        this.thrustLeft = thrustLeft;
+        this.thrustRight = thrustRight;
+    }
+
+    public Point2D.Double getThrust(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel) throws ControllerException
+    {
+        return new Point2D.Double(thrustLeft, thrustRight);
+    }
+}
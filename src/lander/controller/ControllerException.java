@@ -13,7 +13,7 @@ public class ControllerException extends Exception
      *
      * @param message - message to display
      */
-    ControllerException(String message)
+    public ControllerException(String message)
     {
         super(message);
     }
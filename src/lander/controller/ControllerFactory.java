@@ -0,0 +1,23 @@
+package lander.controller;
+
+import lander.LanderSpecs;
+import planet.Planet;
+
+
+/**
+   Makes controllers. Most controllers keep state between calls, so tools
+   that run landers on several threads ask a factory for one per thread.
+*/
+
+public interface ControllerFactory
+{
+    /**
+     * Make a controller for a particular planet and lander
+     *
+     * @param planet - the planet
+     * @param specs - the specs for the lander
+     * @return the controller
+     * @throws ControllerException
+     */
+    public Controller create(Planet planet, LanderSpecs specs) throws ControllerException;
+}
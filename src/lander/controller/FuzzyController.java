@@ -14,7 +14,7 @@ import planet.Planet;
    @author phi
    @version 2009/2 - Part B
 */
-public class FuzzyController implements Controller
+public class FuzzyController implements BatchController
 {
     private Planet planet;
     private LanderSpecs specs;
@@ -31,6 +31,10 @@ public class FuzzyController implements Controller
     private FuzzyVariable fuzzyFuel;
     private FuzzyVariable fuzzyThrust;
 
+    // outputs of the last inference, in N
+    private double inferredLeft;
+    private double inferredRight;
+
     /**
      * Create a fuzzy controller for a particular planet and lander
      *  
@@ -110,37 +114,79 @@ public class FuzzyController implements Controller
 
         try
         {
-            control.clearVariables();
-
-            fuzzyHeight.setValue(Math.max(0.0, Math.min(1.0, height/maxHeight)));
-            fuzzySpeed.setValue(Math.max(-0.5, Math.min(2.0, speedY/maxSpeed)));
-            fuzzyFuel.setValue(Math.max(0.0, Math.min(1.0, fuel/maxFuel)));
-            
-            control.update();
-
-            double thrust = fuzzyThrust.getValue()*maxThrust;
+            infer(height, speedY, location, fuel);
 
-            // adding a VERY!! rough steering control
-            // you should replace this with something fuzzy
-            // you might also want to completely rethink the design of the control system
-            // rather than just doing a tack-on like this
-
-            double balance = 0.5;
+            return new Point2D.Double(inferredLeft, inferredRight);
+        }
+        catch(FuzzyException e)
+        {
+            throw new ControllerException(e.getMessage());
+        }
+    }
 
-            if(location > 0.1)
-            {
-                balance = 0.49;
-            }
-            else if (location < -0.1)
+    /**
+     * Batch version of getThrust - the rule set is driven straight from the
+     * input columns without allocating a result per state
+     */
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        try
+        {
+            for(int i = 0; i < count; i++)
             {
-                balance = 0.51;
+                if(speedY[i] < 0.0)
+                {
+                    thrustLeft[i] = 0.0;
+                    thrustRight[i] = 0.0;
+                }
+                else
+                {
+                    infer(height[i], speedY[i], location[i], fuel[i]);
+                    thrustLeft[i] = inferredLeft;
+                    thrustRight[i] = inferredRight;
+                }
             }
-
-            return new Point2D.Double(balance*thrust, (1-balance)*thrust);
         }
         catch(FuzzyException e)
         {
             throw new ControllerException(e.getMessage());
         }
     }
+
+    /**
+     * Run the rule set for one state, leaving the thrusts in inferredLeft and inferredRight
+     */
+    private void infer(double height, double speedY, double location, double fuel) throws FuzzyException
+    {
+        control.clearVariables();
+
+        fuzzyHeight.setValue(Math.max(0.0, Math.min(1.0, height/maxHeight)));
+        fuzzySpeed.setValue(Math.max(-0.5, Math.min(2.0, speedY/maxSpeed)));
+        fuzzyFuel.setValue(Math.max(0.0, Math.min(1.0, fuel/maxFuel)));
+
+        control.update();
+
+        double thrust = fuzzyThrust.getValue()*maxThrust;
+
+        // adding a VERY!! rough steering control
+        // you should replace this with something fuzzy
+        // you might also want to completely rethink the design of the control system
+        // rather than just doing a tack-on like this
+
+        double balance = 0.5;
+
+        if(location > 0.1)
+        {
+            balance = 0.49;
+        }
+        else if (location < -0.1)
+        {
+            balance = 0.51;
+        }
+
+        inferredLeft = balance*thrust;
+        inferredRight = (1-balance)*thrust;
+    }
 }
@@ -0,0 +1,196 @@
+package lander.controller;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+
+/**
+   A controller that looks its thrust up in a table over a grid of
+   (height, speedY, fuel), taking the nearest grid point. Inputs outside the
+   grid use the nearest edge. It ignores location and rotation, so it suits
+   policies for the vertical descent, such as the ones ValueIterationSolver
+   finds.
+
+   The table is in two flat float arrays with fuel varying fastest, then
+   speed, then height.
+*/
+public class LookupTableController implements BatchController
+{
+    public static final int MAGIC = 0x4C555431; // "LUT1"
+
+    private double minHeight;
+    private double heightStep;
+    private int heights;
+    private double minSpeed;
+    private double speedStep;
+    private int speeds;
+    private double minFuel;
+    private double fuelStep;
+    private int fuels;
+
+    private float[] thrustLeft;
+    private float[] thrustRight;
+
+    /**
+     * Create a lookup table controller
+     *
+     * @param minHeight - height of the first grid point in m
+     * @param maxHeight - height of the last grid point in m
+     * @param heights - number of grid points for height
+     * @param minSpeed - speed of the first grid point in m/s
+     * @param maxSpeed - speed of the last grid point in m/s
+     * @param speeds - number of grid points for speed
+     * @param minFuel - fuel of the first grid point in kg
+     * @param maxFuel - fuel of the last grid point in kg
+     * @param fuels - number of grid points for fuel
+     * @param thrustLeft - left thrust in N at each grid point
+     * @param thrustRight - right thrust in N at each grid point
+     */
+    public LookupTableController(double minHeight, double maxHeight, int heights,
+            double minSpeed, double maxSpeed, int speeds,
+            double minFuel, double maxFuel, int fuels,
+            float[] thrustLeft, float[] thrustRight)
+    {
+        if(heights < 1 || speeds < 1 || fuels < 1)
+        {
+            throw new IllegalArgumentException("every axis needs at least one grid point");
+        }
+        int size = heights*speeds*fuels;
+        if(thrustLeft.length != size || thrustRight.length != size)
+        {
+            throw new IllegalArgumentException("expected " + size + " table entries");
+        }
+
+        this.minHeight = minHeight;
+        this.heightStep = step(minHeight, maxHeight, heights);
+        this.heights = heights;
+        this.minSpeed = minSpeed;
+        this.speedStep = step(minSpeed, maxSpeed, speeds);
+        this.speeds = speeds;
+        this.minFuel = minFuel;
+        this.fuelStep = step(minFuel, maxFuel, fuels);
+        this.fuels = fuels;
+
+        this.thrustLeft = thrustLeft.clone();
+        this.thrustRight = thrustRight.clone();
+    }
+
+    private static double step(double min, double max, int points)
+    {
+        return points > 1 ? (max - min)/(points - 1) : 1.0;
+    }
+
+    /**
+     * Load a table saved by save
+     *
+     * @param file - the file
+     * @return the controller
+     * @throws IOException
+     */
+    public static LookupTableController load(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if(in.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a lookup table file");
+            }
+            double minHeight = in.readDouble();
+            double maxHeight = in.readDouble();
+            int heights = in.readInt();
+            double minSpeed = in.readDouble();
+            double maxSpeed = in.readDouble();
+            int speeds = in.readInt();
+            double minFuel = in.readDouble();
+            double maxFuel = in.readDouble();
+            int fuels = in.readInt();
+
+            long size = (long)heights*speeds*fuels;
+            if(heights < 1 || speeds < 1 || fuels < 1 || size > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " has a bad grid size");
+            }
+            float[] left = new float[(int)size];
+            float[] right = new float[(int)size];
+            for(int i = 0; i < size; i++)
+            {
+                left[i] = in.readFloat();
+                right[i] = in.readFloat();
+            }
+            return new LookupTableController(minHeight, maxHeight, heights, minSpeed, maxSpeed, speeds,
+                    minFuel, maxFuel, fuels, left, right);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the table in the format load reads
+     *
+     * @param file - where to save it
+     * @throws IOException
+     */
+    public void save(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeDouble(minHeight);
+            out.writeDouble(minHeight + heightStep*(heights - 1));
+            out.writeInt(heights);
+            out.writeDouble(minSpeed);
+            out.writeDouble(minSpeed + speedStep*(speeds - 1));
+            out.writeInt(speeds);
+            out.writeDouble(minFuel);
+            out.writeDouble(minFuel + fuelStep*(fuels - 1));
+            out.writeInt(fuels);
+            for(int i = 0; i < thrustLeft.length; i++)
+            {
+                out.writeFloat(thrustLeft[i]);
+                out.writeFloat(thrustRight[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public Point2D.Double getThrust(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel) throws ControllerException
+    {
+        int i = index(height, speedY, fuel);
+        return new Point2D.Double(thrustLeft[i], thrustRight[i]);
+    }
+
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        for(int n = 0; n < count; n++)
+        {
+            int i = index(height[n], speedY[n], fuel[n]);
+            thrustLeft[n] = this.thrustLeft[i];
+            thrustRight[n] = this.thrustRight[i];
+        }
+    }
+
+    private int index(double height, double speedY, double fuel)
+    {
+        int h = nearest(height, minHeight, heightStep, heights);
+        int v = nearest(speedY, minSpeed, speedStep, speeds);
+        int f = nearest(fuel, minFuel, fuelStep, fuels);
+        return (h*speeds + v)*fuels + f;
+    }
+
+    private static int nearest(double value, double min, double step, int points)
+    {
+        long i = Math.round((value - min)/step);
+        return (int)Math.max(0, Math.min(points - 1, i));
+    }
+}
@@ -0,0 +1,326 @@
+package lander.controller;
+
+import lander.LanderSpecs;
+import lander.Lander;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.util.Random;
+import planet.Planet;
+
+/**
+   A learned controller - a small multilayer perceptron.
+
+   The network sees the same normalised inputs as PiraveenController
+   (height, speed, fuel, location and rotation) and gives the left and right
+   thrust as fractions of maxThrust. Hidden layers use tanh and the output
+   layer a logistic sigmoid. All weights sit in one flat float array, layer
+   by layer, each layer being its weights row by row (one row per output)
+   followed by its biases.
+
+   Forward passes run in preallocated buffers and never allocate. The batch
+   call pushes blocks of states through each layer together, with the states
+   innermost, so the inner loops walk contiguous memory.
+
+   Weight files are big-endian: the int MAGIC, the number of layers, the
+   layer sizes from input to output, then the weights as floats.
+
+   Not thread safe because of the buffers - use one per thread.
+*/
+public class MLPController implements BatchController
+{
+    public static final int MAGIC = 0x4D4C5031; // "MLP1"
+    public static final int INPUTS = 5;
+    public static final int OUTPUTS = 2;
+
+    // states pushed through the network together by the batch call
+    private static final int BLOCK = 64;
+
+    // the same scales PiraveenController uses for location and rotation
+    private static final double LOCATION_SCALE = 50.0;
+    private static final double ROTATION_SCALE = 50.0;
+
+    private double maxHeight;
+    private double maxSpeed;
+    private double maxFuel;
+    private double maxThrust;
+
+    private int[] sizes;
+    private int[] offsets;      // start of each layer's weights
+    private float[] weights;
+
+    // buffers for one state
+    private float[] current;
+    private float[] next;
+
+    // buffers for a block of states, neuron by neuron
+    private float[] blockCurrent;
+    private float[] blockNext;
+
+    /**
+     * Create a controller from a set of weights
+     *
+     * @param planet - the planet
+     * @param specs - the specs for the lander
+     * @param sizes - neurons per layer, from INPUTS to OUTPUTS
+     * @param weights - all the weights and biases, layer by layer
+     */
+    public MLPController(Planet planet, LanderSpecs specs, int[] sizes, float[] weights)
+    {
+        if(sizes.length < 2 || sizes[0] != INPUTS || sizes[sizes.length-1] != OUTPUTS)
+        {
+            throw new IllegalArgumentException("network must go from " + INPUTS + " inputs to " + OUTPUTS + " outputs");
+        }
+        if(weights.length != weightCount(sizes))
+        {
+            throw new IllegalArgumentException("expected " + weightCount(sizes) + " weights but got " + weights.length);
+        }
+
+        maxHeight = specs.getStartHeight();
+        maxSpeed = Lander.terminalVelocity(planet, specs);
+        maxFuel = specs.getFuelCapacity();
+        maxThrust = specs.getMaxThrust();
+
+        this.sizes = sizes.clone();
+        this.weights = weights.clone();
+
+        offsets = new int[sizes.length-1];
+        int widest = 0;
+        for(int layer = 0; layer < sizes.length; layer++)
+        {
+            if(sizes[layer] < 1)
+            {
+                throw new IllegalArgumentException("every layer needs at least one neuron");
+            }
+            widest = Math.max(widest, sizes[layer]);
+            if(layer > 0)
+            {
+                offsets[layer-1] = layer == 1 ? 0 : offsets[layer-2] + sizes[layer-1]*(sizes[layer-2] + 1);
+            }
+        }
+
+        current = new float[widest];
+        next = new float[widest];
+        blockCurrent = new float[widest*BLOCK];
+        blockNext = new float[widest*BLOCK];
+    }
+
+    /**
+     * Create a controller with small random weights, as a starting point for training
+     *
+     * @param planet - the planet
+     * @param specs - the specs for the lander
+     * @param sizes - neurons per layer, from INPUTS to OUTPUTS
+     * @param seed - seed for the random weights
+     * @return the controller
+     */
+    public static MLPController random(Planet planet, LanderSpecs specs, int[] sizes, long seed)
+    {
+        Random random = new Random(seed);
+        float[] weights = new float[weightCount(sizes)];
+        int w = 0;
+        for(int layer = 1; layer < sizes.length; layer++)
+        {
+            double limit = Math.sqrt(6.0/(sizes[layer-1] + sizes[layer]));
+            for(int i = 0; i < sizes[layer]*sizes[layer-1]; i++)
+            {
+                weights[w++] = (float)(limit*(2.0*random.nextDouble() - 1.0));
+            }
+            w += sizes[layer];  // biases start at 0
+        }
+        return new MLPController(planet, specs, sizes, weights);
+    }
+
+    /**
+     * Load a controller from a weight file
+     *
+     * @param planet - the planet
+     * @param specs - the specs for the lander
+     * @param file - the weight file
+     * @return the controller
+     * @throws IOException
+     */
+    public static MLPController load(Planet planet, LanderSpecs specs, File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if(in.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not an MLP weight file");
+            }
+            int layers = in.readInt();
+            if(layers < 2 || layers > 64)
+            {
+                throw new IOException(file + " has a bad layer count: " + layers);
+            }
+            int[] sizes = new int[layers];
+            for(int i = 0; i < layers; i++)
+            {
+                sizes[i] = in.readInt();
+            }
+            float[] weights = new float[weightCount(sizes)];
+            for(int i = 0; i < weights.length; i++)
+            {
+                weights[i] = in.readFloat();
+            }
+            return new MLPController(planet, specs, sizes, weights);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException(file + ": " + e.getMessage());
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the weights in the format load reads
+     *
+     * @param file - where to save them
+     * @throws IOException
+     */
+    public void save(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(sizes.length);
+            for(int size: sizes)
+            {
+                out.writeInt(size);
+            }
+            for(float weight: weights)
+            {
+                out.writeFloat(weight);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static int weightCount(int[] sizes)
+    {
+        int count = 0;
+        for(int layer = 1; layer < sizes.length; layer++)
+        {
+            count += sizes[layer]*(sizes[layer-1] + 1);
+        }
+        return count;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public Point2D.Double getThrust(double height, double speedY, double location, double speedX,
+            double rotation, double rotationSpeed, double fuel) throws ControllerException
+    {
+        setInputs(current, 0, 1, height, speedY, location, rotation, fuel);
+
+        float[] in = current;
+        float[] out = next;
+        int last = sizes.length-1;
+        for(int layer = 1; layer <= last; layer++)
+        {
+            int inputs = sizes[layer-1];
+            int w = offsets[layer-1];
+            int b = w + sizes[layer]*inputs;
+            for(int j = 0; j < sizes[layer]; j++)
+            {
+                float sum = weights[b+j];
+                for(int k = 0; k < inputs; k++)
+                {
+                    sum += weights[w++]*in[k];
+                }
+                out[j] = layer == last ? sigmoid(sum) : tanh(sum);
+            }
+            float[] t = in; in = out; out = t;
+        }
+
+        return new Point2D.Double(in[0]*maxThrust, in[1]*maxThrust);
+    }
+
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        for(int start = 0; start < count; start += BLOCK)
+        {
+            int n = Math.min(BLOCK, count - start);
+            for(int s = 0; s < n; s++)
+            {
+                int i = start + s;
+                setInputs(blockCurrent, s, BLOCK, height[i], speedY[i], location[i], rotation[i], fuel[i]);
+            }
+
+            float[] in = blockCurrent;
+            float[] out = blockNext;
+            int last = sizes.length-1;
+            for(int layer = 1; layer <= last; layer++)
+            {
+                int inputs = sizes[layer-1];
+                int w = offsets[layer-1];
+                int b = w + sizes[layer]*inputs;
+                for(int j = 0; j < sizes[layer]; j++)
+                {
+                    int row = j*BLOCK;
+                    float bias = weights[b+j];
+                    for(int s = 0; s < n; s++)
+                    {
+                        out[row+s] = bias;
+                    }
+                    for(int k = 0; k < inputs; k++)
+                    {
+                        float weight = weights[w++];
+                        int col = k*BLOCK;
+                        for(int s = 0; s < n; s++)
+                        {
+                            out[row+s] += weight*in[col+s];
+                        }
+                    }
+                    for(int s = 0; s < n; s++)
+                    {
+                        out[row+s] = layer == last ? sigmoid(out[row+s]) : tanh(out[row+s]);
+                    }
+                }
+                float[] t = in; in = out; out = t;
+            }
+
+            for(int s = 0; s < n; s++)
+            {
+                thrustLeft[start+s] = in[s]*maxThrust;
+                thrustRight[start+s] = in[BLOCK+s]*maxThrust;
+            }
+        }
+    }
+
+    /**
+     * Write the normalised inputs for one state into a buffer
+     */
+    private void setInputs(float[] buffer, int index, int stride,
+            double height, double speedY, double location, double rotation, double fuel)
+    {
+        buffer[index] = (float)Math.max(0.0, Math.min(1.0, height/maxHeight));
+        buffer[index + stride] = (float)Math.max(-0.5, Math.min(2.0, speedY/maxSpeed));
+        buffer[index + 2*stride] = (float)Math.max(0.0, Math.min(1.0, fuel/maxFuel));
+        buffer[index + 3*stride] = (float)Math.max(-1.0, Math.min(1.0, location/LOCATION_SCALE));
+        buffer[index + 4*stride] = (float)Math.max(-1.0, Math.min(1.0, rotation/ROTATION_SCALE));
+    }
+
+    /**
+     * tanh through the exp intrinsic, which is much cheaper than Math.tanh
+     */
+    private static float tanh(float x)
+    {
+        return 1.0f - 2.0f/((float)Math.exp(2.0f*x) + 1.0f);
+    }
+
+    private static float sigmoid(float x)
+    {
+        return (float)(1.0/(1.0 + Math.exp(-x)));
+    }
+}
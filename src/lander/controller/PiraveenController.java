@@ -14,7 +14,7 @@ import planet.Planet;
    @author Piraveen Mahesan [MAPIC21]
    @version 26-05-2014 - Part B
 */
-public class PiraveenController implements Controller
+public class PiraveenController implements BatchController
 {
     private Planet planet;
     private LanderSpecs specs;
@@ -27,6 +27,22 @@ public class PiraveenController implements Controller
     private double maxLocation;
     private double maxRotation;
 
+    /** Makes Piraveen controllers, for tools that need one per thread */
+    public static final ControllerFactory FACTORY = new ControllerFactory()
+    {
+        public Controller create(Planet planet, LanderSpecs specs) throws ControllerException
+        {
+            try
+            {
+                return new PiraveenController(planet, specs);
+            }
+            catch(FuzzyException e)
+            {
+                throw new ControllerException(e.getMessage());
+            }
+        }
+    };
+
     private SugenoRuleSet control;
     private FuzzyVariable fuzzyHeight;
     private FuzzyVariable fuzzySpeed;
@@ -37,6 +53,10 @@ public class PiraveenController implements Controller
     private FuzzyVariable fuzzyRightThrust;
     private FuzzyVariable fuzzyRotation;
 
+    // outputs of the last inference, in N
+    private double inferredLeft;
+    private double inferredRight;
+
     /**
      * Create a fuzzy controller for a particular planet and lander
      *
@@ -235,25 +255,64 @@ public class PiraveenController implements Controller
 
         try
         {
-            control.clearVariables();
-
-            fuzzyHeight.setValue(Math.max(0.0, Math.min(1.0, height/maxHeight)));
-            fuzzySpeed.setValue(Math.max(-0.5, Math.min(2.0, speedY/maxSpeed)));
-            fuzzyFuel.setValue(Math.max(0.0, Math.min(1.0, fuel/maxFuel)));
-            fuzzyLocation.setValue(Math.max(-1.0, Math.min(1.0, location/maxLocation)));
-            fuzzyRotation.setValue(Math.max(-1.0, Math.min(1.0, rotation/maxRotation)));
+            infer(height, speedY, location, rotation, fuel);
 
-            control.update();
-
-            double thrust = fuzzyThrust.getValue()*maxThrust;
-            double leftThrust = fuzzyLeftThrust.getValue();
-            double rightThrust = fuzzyRightThrust.getValue();
+            return new Point2D.Double(inferredLeft, inferredRight);
+        }
+        catch(FuzzyException e)
+        {
+            throw new ControllerException(e.getMessage());
+        }
+    }
 
-            return new Point2D.Double(leftThrust*thrust, rightThrust*thrust);
+    /**
+     * Batch version of getThrust - the rule set is driven straight from the
+     * input columns without allocating a result per state
+     */
+    public void getThrust(double[] height, double[] speedY, double[] location, double[] speedX,
+            double[] rotation, double[] rotationSpeed, double[] fuel,
+            double[] thrustLeft, double[] thrustRight, int count) throws ControllerException
+    {
+        try
+        {
+            for(int i = 0; i < count; i++)
+            {
+                if(speedY[i] < 0.0)
+                {
+                    thrustLeft[i] = 0.0;
+                    thrustRight[i] = 0.0;
+                }
+                else
+                {
+                    infer(height[i], speedY[i], location[i], rotation[i], fuel[i]);
+                    thrustLeft[i] = inferredLeft;
+                    thrustRight[i] = inferredRight;
+                }
+            }
         }
         catch(FuzzyException e)
         {
             throw new ControllerException(e.getMessage());
         }
     }
+
+    /**
+     * Run the rule set for one state, leaving the thrusts in inferredLeft and inferredRight
+     */
+    private void infer(double height, double speedY, double location, double rotation, double fuel) throws FuzzyException
+    {
+        control.clearVariables();
+
+        fuzzyHeight.setValue(Math.max(0.0, Math.min(1.0, height/maxHeight)));
+        fuzzySpeed.setValue(Math.max(-0.5, Math.min(2.0, speedY/maxSpeed)));
+        fuzzyFuel.setValue(Math.max(0.0, Math.min(1.0, fuel/maxFuel)));
+        fuzzyLocation.setValue(Math.max(-1.0, Math.min(1.0, location/maxLocation)));
+        fuzzyRotation.setValue(Math.max(-1.0, Math.min(1.0, rotation/maxRotation)));
+
+        control.update();
+
+        double thrust = fuzzyThrust.getValue()*maxThrust;
+        inferredLeft = fuzzyLeftThrust.getValue()*thrust;
+        inferredRight = fuzzyRightThrust.getValue()*thrust;
+    }
 }
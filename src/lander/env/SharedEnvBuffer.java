@@ -0,0 +1,439 @@
+package lander.env;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+   A memory-mapped file through which a trainer drives a VectorEnv, so that
+   actions and observations are never serialised - both sides read and
+   write the same pages.
+
+   Everything is in the platform's native byte order. The file starts with a
+   64 byte header of ints: MAGIC, VERSION, number of environments,
+   observations per environment, actions per environment and number of
+   slots, then the long request sequence at byte 24 and the long response
+   sequence at byte 32. After the header comes a ring of slots, each a
+   multiple of 64 bytes long, holding
+
+     int command, int unused,
+     float actions[envs*ACTIONS],
+     float observations[envs*OBSERVATIONS],
+     float rewards[envs],
+     byte dones[envs]
+
+   To make request n the trainer fills slot n % slots with a command and
+   actions, then writes n to the request sequence. The server answers in the
+   same slot and then writes n to the response sequence. With more than one
+   slot the trainer can keep reading the results of one step in place while
+   the next is being worked on.
+
+   The mapped buffer itself gives no ordering guarantee, between threads or
+   processes, so the sequences (and the magic number, which is written last
+   when the file is made) are not accessed through it but straight at their
+   addresses with sun.misc.Unsafe: an ordered write, which is a release, so
+   the data it publishes is visible before it on any processor, and a
+   volatile read, which is an acquire, so the data is not read before it
+   and the read is not hoisted out of the wait loop. Unsafe is looked up by
+   reflection and called through method handles, which the JIT turns into
+   plain ordered loads and stores.
+*/
+public class SharedEnvBuffer
+{
+    public static final int MAGIC = 0x4C454E56;  // "LENV"
+    public static final int VERSION = 1;
+
+    // commands
+    public static final int STEP = 0;
+    public static final int RESET = 1;
+    public static final int CLOSE = 2;
+
+    private static final int HEADER = 64;
+    private static final int ENVS_AT = 8;
+    private static final int OBSERVATIONS_AT = 12;
+    private static final int ACTIONS_AT = 16;
+    private static final int SLOTS_AT = 20;
+    private static final int REQUEST_AT = 24;
+    private static final int RESPONSE_AT = 32;
+
+    // how many times to spin before parking while waiting
+    private static final int SPINS = 1000;
+    private static final long PARK_NANOS = 20000;
+
+    // Unsafe's ordered accesses, bound to the instance of it, taking a null object and an address
+    private static final MethodHandle PUT_ORDERED_INT;     // (Object, long, int) void
+    private static final MethodHandle PUT_ORDERED_LONG;    // (Object, long, long) void
+    private static final MethodHandle GET_LONG_VOLATILE;   // (Object, long) long
+    // reads a direct buffer's address
+    private static final MethodHandle GET_LONG;            // (Object, long) long
+    private static final long ADDRESS_OFFSET;
+    static
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PUT_ORDERED_INT = lookup.findVirtual(unsafeClass, "putOrderedInt",
+                    MethodType.methodType(void.class, Object.class, long.class, int.class)).bindTo(unsafe);
+            PUT_ORDERED_LONG = lookup.findVirtual(unsafeClass, "putOrderedLong",
+                    MethodType.methodType(void.class, Object.class, long.class, long.class)).bindTo(unsafe);
+            GET_LONG_VOLATILE = lookup.findVirtual(unsafeClass, "getLongVolatile",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            GET_LONG = lookup.findVirtual(unsafeClass, "getLong",
+                    MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            ADDRESS_OFFSET = (Long)unsafeClass.getMethod("objectFieldOffset", Field.class)
+                    .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+        }
+        catch(Exception e)
+        {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private long address;       // where the buffer is mapped
+    private int envs;
+    private int slots;
+    private int slotSize;
+    private int actionsAt;
+    private int observationsAt;
+    private int rewardsAt;
+    private int donesAt;
+
+    /**
+     * Create a new buffer file, as the server does
+     *
+     * @param path - the file
+     * @param envs - number of environments
+     * @param slots - number of slots in the ring
+     * @return the buffer
+     * @throws IOException
+     */
+    public static SharedEnvBuffer create(File path, int envs, int slots) throws IOException
+    {
+        if(envs < 1 || slots < 1)
+        {
+            throw new IllegalArgumentException("need at least one environment and one slot");
+        }
+
+        SharedEnvBuffer shared = new SharedEnvBuffer(path, envs, slots, true);
+        ByteBuffer b = shared.buffer;
+        b.putInt(ENVS_AT, envs);
+        b.putInt(OBSERVATIONS_AT, VectorEnv.OBSERVATIONS);
+        b.putInt(ACTIONS_AT, VectorEnv.ACTIONS);
+        b.putInt(SLOTS_AT, slots);
+        b.putLong(REQUEST_AT, 0L);
+        b.putLong(RESPONSE_AT, 0L);
+        b.putInt(4, VERSION);
+        shared.release(0, MAGIC);
+        return shared;
+    }
+
+    /**
+     * Open a buffer file the server has created, as the trainer does
+     *
+     * @param path - the file
+     * @return the buffer
+     * @throws IOException
+     */
+    public static SharedEnvBuffer open(File path) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(path, "r");
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.nativeOrder());
+        try
+        {
+            raf.getChannel().read(header, 0);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+        {
+            throw new IOException(path + " is not a version " + VERSION + " environment buffer");
+        }
+        if(header.getInt(OBSERVATIONS_AT) != VectorEnv.OBSERVATIONS || header.getInt(ACTIONS_AT) != VectorEnv.ACTIONS)
+        {
+            throw new IOException(path + " has the wrong observation or action size");
+        }
+        return new SharedEnvBuffer(path, header.getInt(ENVS_AT), header.getInt(SLOTS_AT), false);
+    }
+
+    private SharedEnvBuffer(File path, int envs, int slots, boolean create) throws IOException
+    {
+        this.envs = envs;
+        this.slots = slots;
+
+        actionsAt = 8;
+        observationsAt = actionsAt + 4*envs*VectorEnv.ACTIONS;
+        rewardsAt = observationsAt + 4*envs*VectorEnv.OBSERVATIONS;
+        donesAt = rewardsAt + 4*envs;
+        slotSize = (donesAt + envs + 63) & ~63;
+
+        long size = HEADER + (long)slotSize*slots;
+        if(size > Integer.MAX_VALUE)
+        {
+            throw new IOException("too many environments or slots for one mapping");
+        }
+
+        file = new RandomAccessFile(path, "rw");
+        if(create)
+        {
+            file.setLength(0);
+            file.setLength(size);
+        }
+        else if(file.length() < size)
+        {
+            file.close();
+            throw new IOException(path + " is shorter than its header says");
+        }
+        buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        buffer.order(ByteOrder.nativeOrder());
+        try
+        {
+            address = (long)GET_LONG.invokeExact((Object)buffer, ADDRESS_OFFSET);
+        }
+        catch(Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    public int getEnvs()
+    {
+        return envs;
+    }
+
+    public int getSlots()
+    {
+        return slots;
+    }
+
+    public void close() throws IOException
+    {
+        file.close();
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    // Trainer side
+
+    /**
+     * Make a request
+     *
+     * @param command - STEP, RESET or CLOSE
+     * @param actions - ACTIONS values per environment for STEP, otherwise may be null
+     * @return the sequence number of the request
+     */
+    public long request(int command, float[] actions)
+    {
+        long seq = acquire(REQUEST_AT) + 1;
+        int slot = slotStart(seq);
+        buffer.putInt(slot, command);
+        if(actions != null)
+        {
+            floats(slot + actionsAt).put(actions, 0, envs*VectorEnv.ACTIONS);
+        }
+        release(REQUEST_AT, seq);
+        return seq;
+    }
+
+    /**
+     * Wait for the server to answer a request
+     *
+     * @param seq - the request
+     * @param timeoutMillis - how long to wait
+     * @throws IOException if the server does not answer in time
+     */
+    public void awaitResponse(long seq, long timeoutMillis) throws IOException
+    {
+        if(!await(RESPONSE_AT, seq, timeoutMillis))
+        {
+            throw new IOException("no response to request " + seq + " after " + timeoutMillis + " ms");
+        }
+    }
+
+    /**
+     * @return the observations of a request, read in place
+     */
+    public FloatBuffer getObservations(long seq)
+    {
+        return floats(slotStart(seq) + observationsAt).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the rewards of a request, read in place
+     */
+    public FloatBuffer getRewards(long seq)
+    {
+        return floats(slotStart(seq) + rewardsAt).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the done flags of a request, read in place
+     */
+    public ByteBuffer getDones(long seq)
+    {
+        return bytes(slotStart(seq) + donesAt).asReadOnlyBuffer();
+    }
+
+    /**
+     * Copy out the results of a request - only needed if they can't be read in place
+     */
+    public void readResults(long seq, float[] observations, float[] rewards, byte[] dones)
+    {
+        int slot = slotStart(seq);
+        floats(slot + observationsAt).get(observations, 0, envs*VectorEnv.OBSERVATIONS);
+        floats(slot + rewardsAt).get(rewards, 0, envs);
+        bytes(slot + donesAt).get(dones, 0, envs);
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    // Server side
+
+    /**
+     * Wait for the next request
+     *
+     * @param last - the last request answered
+     * @param timeoutMillis - how long to wait
+     * @return the sequence number of the next request, or -1 if none arrived in time
+     */
+    public long awaitRequest(long last, long timeoutMillis)
+    {
+        return await(REQUEST_AT, last + 1, timeoutMillis) ? last + 1 : -1;
+    }
+
+    public int getCommand(long seq)
+    {
+        return buffer.getInt(slotStart(seq));
+    }
+
+    public void readActions(long seq, float[] actions)
+    {
+        floats(slotStart(seq) + actionsAt).get(actions, 0, envs*VectorEnv.ACTIONS);
+    }
+
+    /**
+     * Write the results of a request and tell the trainer they are ready
+     */
+    public void respond(long seq, float[] observations, float[] rewards, byte[] dones)
+    {
+        int slot = slotStart(seq);
+        floats(slot + observationsAt).put(observations, 0, envs*VectorEnv.OBSERVATIONS);
+        floats(slot + rewardsAt).put(rewards, 0, envs);
+        bytes(slot + donesAt).put(dones, 0, envs);
+        release(RESPONSE_AT, seq);
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    private int slotStart(long seq)
+    {
+        return HEADER + (int)(seq % slots)*slotSize;
+    }
+
+    private FloatBuffer floats(int at)
+    {
+        ByteBuffer b = buffer.duplicate();
+        b.position(at);
+        return b.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private ByteBuffer bytes(int at)
+    {
+        ByteBuffer b = buffer.duplicate();
+        b.position(at);
+        return b.slice();
+    }
+
+    private boolean await(int at, long seq, long timeoutMillis)
+    {
+        long deadline = System.nanoTime() + timeoutMillis*1000000L;
+        int spins = 0;
+        while(acquire(at) < seq)
+        {
+            if(++spins > SPINS)
+            {
+                if(System.nanoTime() > deadline) return false;
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write an int after everything written before it
+     */
+    private void release(int at, int value)
+    {
+        try
+        {
+            PUT_ORDERED_INT.invokeExact((Object)null, address + at, value);
+        }
+        catch(Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Write a long after everything written before it
+     */
+    private void release(int at, long value)
+    {
+        try
+        {
+            PUT_ORDERED_LONG.invokeExact((Object)null, address + at, value);
+        }
+        catch(Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Read a long before anything read after it
+     */
+    private long acquire(int at)
+    {
+        try
+        {
+            return (long)GET_LONG_VOLATILE.invokeExact((Object)null, address + at);
+        }
+        catch(Throwable t)
+        {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t)
+    {
+        if(t instanceof RuntimeException)
+        {
+            throw (RuntimeException)t;
+        }
+        if(t instanceof Error)
+        {
+            throw (Error)t;
+        }
+        throw new IllegalStateException(t);
+    }
+}
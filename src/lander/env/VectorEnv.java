@@ -0,0 +1,225 @@
+package lander.env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import lander.Lander;
+import lander.LanderSpecs;
+import lander.controller.CommandController;
+import lander.controller.ControllerException;
+import planet.Planet;
+
+/**
+   Many landers stepped together, in the style of a gym vector environment.
+
+   Each environment is a Lander with its own copy of the planet, driven by a
+   CommandController. Actions are the left and right thrust as fractions of
+   maxThrust. Observations are the seven values a controller sees, in the
+   same units: height, speedY, location, speedX, rotation (degrees),
+   rotationSpeed (degrees/s) and fuel. The reward is 0 until the lander is
+   down and then getFitness(). An environment that finishes is reset
+   straight away, so the observation returned with done set is the first
+   one of its next episode.
+
+   The landers are split into slabs, one per thread.
+*/
+public class VectorEnv
+{
+    public static final int OBSERVATIONS = 7;
+    public static final int ACTIONS = 2;
+
+    private Lander[] landers;
+    private CommandController[] commands;
+    private double maxThrust;
+
+    private ExecutorService pool;
+    private List<Callable<Void>> slabs;
+    private long[] episodes;    // finished episodes per slab
+
+    // arguments of the step in progress, shared with the slab tasks
+    private float[] actions;
+    private float[] observations;
+    private float[] rewards;
+    private byte[] dones;
+
+    /**
+     * Create a vector of environments
+     *
+     * @param planet - the planet to land on - each environment gets its own copy
+     * @param specs - specifications of the landers
+     * @param count - number of environments
+     * @param threads - number of threads to step them on
+     * @param seed - seed for the turbulence
+     */
+    public VectorEnv(Planet planet, LanderSpecs specs, int count, int threads, long seed)
+    {
+        if(count < 1 || threads < 1)
+        {
+            throw new IllegalArgumentException("need at least one environment and one thread");
+        }
+
+        maxThrust = specs.getMaxThrust();
+        landers = new Lander[count];
+        commands = new CommandController[count];
+        Random seeds = new Random(seed);
+        for(int i = 0; i < count; i++)
+        {
+            Planet own = new Planet(planet.getGravity(), planet.getViscocity(), planet.getTurbulence());
+            own.setSeed(seeds.nextLong());
+            commands[i] = new CommandController();
+            landers[i] = new Lander(own, commands[i], specs, 0);
+        }
+
+        threads = Math.min(threads, count);
+        episodes = new long[threads];
+        slabs = new ArrayList<Callable<Void>>();
+        for(int t = 0; t < threads; t++)
+        {
+            final int slab = t;
+            final int from = (int)((long)count*t/threads);
+            final int to = (int)((long)count*(t+1)/threads);
+            slabs.add(new Callable<Void>()
+            {
+                public Void call() throws ControllerException
+                {
+                    stepRange(slab, from, to);
+                    return null;
+                }
+            });
+        }
+        if(threads > 1)
+        {
+            pool = Executors.newFixedThreadPool(threads);
+        }
+    }
+
+    public int getCount()
+    {
+        return landers.length;
+    }
+
+    /**
+     * @return number of episodes finished since this was created
+     */
+    public long getEpisodes()
+    {
+        long total = 0;
+        for(long e: episodes)
+        {
+            total += e;
+        }
+        return total;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Reset every environment
+     *
+     * @param observations - filled with OBSERVATIONS values per environment
+     */
+    public void reset(float[] observations)
+    {
+        for(int i = 0; i < landers.length; i++)
+        {
+            landers[i].reset();
+            commands[i].setThrust(0.0, 0.0);
+            observe(i, observations);
+        }
+    }
+
+    /**
+     * Step every environment by one control period
+     *
+     * @param actions - ACTIONS values per environment, each 0 to 1
+     * @param observations - filled with OBSERVATIONS values per environment
+     * @param rewards - filled with one reward per environment
+     * @param dones - set to 1 for each environment that finished this step, 0 otherwise
+     * @throws ControllerException
+     * @throws InterruptedException
+     */
+    public void step(float[] actions, float[] observations, float[] rewards, byte[] dones)
+            throws ControllerException, InterruptedException
+    {
+        this.actions = actions;
+        this.observations = observations;
+        this.rewards = rewards;
+        this.dones = dones;
+
+        try
+        {
+            if(pool == null)
+            {
+                stepRange(0, 0, landers.length);
+            }
+            else
+            {
+                for(Future<Void> f: pool.invokeAll(slabs))
+                {
+                    f.get();
+                }
+            }
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof ControllerException)
+            {
+                throw (ControllerException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stop the threads
+     */
+    public void close()
+    {
+        if(pool != null)
+        {
+            pool.shutdown();
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    private void stepRange(int slab, int from, int to) throws ControllerException
+    {
+        for(int i = from; i < to; i++)
+        {
+            double left = Math.max(0.0, Math.min(1.0, actions[ACTIONS*i]))*maxThrust;
+            double right = Math.max(0.0, Math.min(1.0, actions[ACTIONS*i+1]))*maxThrust;
+            commands[i].setThrust(left, right);
+
+            Lander lander = landers[i];
+            if(lander.step())
+            {
+                rewards[i] = 0.0f;
+                dones[i] = 0;
+            }
+            else
+            {
+                rewards[i] = (float)lander.getFitness();
+                dones[i] = 1;
+                episodes[slab]++;
+                lander.reset();
+                commands[i].setThrust(0.0, 0.0);
+            }
+            observe(i, observations);
+        }
+    }
+
+    private void observe(int i, float[] observations)
+    {
+        Lander lander = landers[i];
+        int o = OBSERVATIONS*i;
+        observations[o] = (float)lander.getHeight();
+        observations[o+1] = (float)lander.getSpeedY();
+        observations[o+2] = (float)lander.getLocation();
+        observations[o+3] = (float)lander.getSpeedX();
+        observations[o+4] = (float)Math.toDegrees(lander.getRotation());
+        observations[o+5] = (float)Math.toDegrees(lander.getRotationSpeed());
+        observations[o+6] = (float)lander.getFuel();
+    }
+}
@@ -0,0 +1,136 @@
+package lander.env;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import lander.LanderSpecs;
+import planet.Planet;
+
+/**
+   A trainer-side test client for the shared environment protocol. It either
+   starts a server on a temporary file in this JVM or connects to one that is
+   already running, then resets, steps a simple hand-written policy through a
+   number of requests, checks what comes back and sends CLOSE.
+*/
+public class VectorEnvClient
+{
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Run the test
+     *
+     * @param args - number of environments and steps, optionally the buffer file of a running server
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int envs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        File file;
+        Thread serverThread = null;
+        VectorEnv env = null;
+        if(args.length > 2)
+        {
+            file = new File(args[2]);
+        }
+        else
+        {
+            file = File.createTempFile("lander-env", ".buf");
+            file.deleteOnExit();
+            env = new VectorEnv(Planet.getMars(), LanderSpecs.getMarsLanderSpecs(), envs,
+                    Runtime.getRuntime().availableProcessors(), 1L);
+            SharedEnvBuffer serverBuffer = SharedEnvBuffer.create(file, envs, 2);
+            serverThread = new Thread(new VectorEnvServer(env, serverBuffer), "env server");
+            serverThread.start();
+        }
+
+        SharedEnvBuffer buffer = SharedEnvBuffer.open(file);
+        envs = buffer.getEnvs();
+        double safeSpeed = LanderSpecs.getMarsLanderSpecs().getSafeLandingSpeed();
+
+        long seq = buffer.request(SharedEnvBuffer.RESET, null);
+        buffer.awaitResponse(seq, TIMEOUT_MILLIS);
+        check(buffer.getObservations(seq), envs);
+
+        float[] actions = new float[envs*VectorEnv.ACTIONS];
+        long episodes = 0;
+        double totalReward = 0.0;
+        long start = System.nanoTime();
+        for(int step = 0; step < steps; step++)
+        {
+            // brake harder the faster we are falling compared to a safe speed for our height
+            FloatBuffer obs = buffer.getObservations(seq);
+            for(int i = 0; i < envs; i++)
+            {
+                float height = obs.get(VectorEnv.OBSERVATIONS*i);
+                float speedY = obs.get(VectorEnv.OBSERVATIONS*i + 1);
+                double target = Math.max(safeSpeed/2, Math.min(safeSpeed*15, height/4.0));
+                float thrust = (float)Math.max(0.0, Math.min(1.0, (speedY - target)/200.0));
+                actions[VectorEnv.ACTIONS*i] = thrust;
+                actions[VectorEnv.ACTIONS*i + 1] = thrust;
+            }
+
+            seq = buffer.request(SharedEnvBuffer.STEP, actions);
+            buffer.awaitResponse(seq, TIMEOUT_MILLIS);
+
+            FloatBuffer rewards = buffer.getRewards(seq);
+            ByteBuffer dones = buffer.getDones(seq);
+            for(int i = 0; i < envs; i++)
+            {
+                if(dones.get(i) != 0)
+                {
+                    episodes++;
+                    totalReward += rewards.get(i);
+                }
+                else if(rewards.get(i) != 0.0f)
+                {
+                    throw new IllegalStateException("reward without done for environment " + i);
+                }
+            }
+            check(buffer.getObservations(seq), envs);
+        }
+        double seconds = (System.nanoTime() - start)/1e9;
+
+        seq = buffer.request(SharedEnvBuffer.CLOSE, null);
+        buffer.awaitResponse(seq, TIMEOUT_MILLIS);
+        buffer.close();
+
+        if(serverThread != null)
+        {
+            serverThread.join();
+            env.close();
+            if(env.getEpisodes() != episodes)
+            {
+                throw new IllegalStateException("server finished " + env.getEpisodes() + " episodes but client saw " + episodes);
+            }
+        }
+        if(episodes == 0)
+        {
+            throw new IllegalStateException("no episode finished in " + steps + " steps");
+        }
+
+        System.out.println("Protocol OK: " + envs + " environments, " + steps + " steps, " +
+                episodes + " episodes, average reward " + totalReward/episodes);
+        System.out.println(String.format("%.0f environment steps per second", (double)envs*steps/seconds));
+    }
+
+    private static void check(FloatBuffer observations, int envs)
+    {
+        for(int i = 0; i < envs*VectorEnv.OBSERVATIONS; i++)
+        {
+            float value = observations.get(i);
+            if(Float.isNaN(value) || Float.isInfinite(value))
+            {
+                throw new IllegalStateException("bad observation " + value + " at " + i);
+            }
+        }
+        for(int i = 0; i < envs; i++)
+        {
+            if(observations.get(VectorEnv.OBSERVATIONS*i) < 0.0f)
+            {
+                throw new IllegalStateException("negative height for environment " + i);
+            }
+        }
+    }
+}
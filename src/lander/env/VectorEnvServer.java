@@ -0,0 +1,125 @@
+package lander.env;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import lander.LanderSpecs;
+import lander.controller.ControllerException;
+import planet.Planet;
+
+/**
+   Serves a VectorEnv to a trainer through a SharedEnvBuffer.
+*/
+public class VectorEnvServer implements Runnable
+{
+    // how long to wait for a trainer before checking whether to stop
+    private static final long POLL_MILLIS = 1000;
+
+    private VectorEnv env;
+    private SharedEnvBuffer buffer;
+
+    private volatile boolean running = false;
+
+    /**
+     * Serve environments on Mars until the trainer sends CLOSE
+     *
+     * @param args - buffer file, number of environments, optionally threads and slots
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length < 2)
+        {
+            System.out.println("usage: VectorEnvServer file envs [threads [slots]]");
+            return;
+        }
+
+        File file = new File(args[0]);
+        int envs = Integer.parseInt(args[1]);
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int slots = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+
+        VectorEnv env = new VectorEnv(Planet.getMars(), LanderSpecs.getMarsLanderSpecs(), envs, threads, System.nanoTime());
+        SharedEnvBuffer buffer = SharedEnvBuffer.create(file, envs, slots);
+        System.out.println("Serving " + envs + " environments through " + file);
+
+        new VectorEnvServer(env, buffer).run();
+
+        buffer.close();
+        env.close();
+        System.out.println("Finished " + env.getEpisodes() + " episodes");
+    }
+
+    /**
+     * Create a server
+     *
+     * @param env - the environments
+     * @param buffer - the buffer to serve them through - must have as many environments
+     */
+    public VectorEnvServer(VectorEnv env, SharedEnvBuffer buffer)
+    {
+        if(env.getCount() != buffer.getEnvs())
+        {
+            throw new IllegalArgumentException("buffer is for " + buffer.getEnvs() + " environments, not " + env.getCount());
+        }
+        this.env = env;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Answer requests until the trainer sends CLOSE or stop is called
+     */
+    public void run()
+    {
+        int count = env.getCount();
+        float[] actions = new float[count*VectorEnv.ACTIONS];
+        float[] observations = new float[count*VectorEnv.OBSERVATIONS];
+        float[] rewards = new float[count];
+        byte[] dones = new byte[count];
+
+        running = true;
+        long last = 0;
+        try
+        {
+            while(running)
+            {
+                long seq = buffer.awaitRequest(last, POLL_MILLIS);
+                if(seq < 0) continue;
+
+                int command = buffer.getCommand(seq);
+                if(command == SharedEnvBuffer.STEP)
+                {
+                    buffer.readActions(seq, actions);
+                    env.step(actions, observations, rewards, dones);
+                }
+                else if(command == SharedEnvBuffer.RESET)
+                {
+                    env.reset(observations);
+                    Arrays.fill(rewards, 0.0f);
+                    Arrays.fill(dones, (byte)0);
+                }
+                else
+                {
+                    running = false;
+                }
+
+                buffer.respond(seq, observations, rewards, dones);
+                last = seq;
+            }
+        }
+        catch(ControllerException ce)
+        {
+            ce.printStackTrace(System.out);
+        }
+        catch(InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+    }
+
+    public void stop()
+    {
+        running = false;
+    }
+}
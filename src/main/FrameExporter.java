@@ -0,0 +1,275 @@
+package main;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.ImageIO;
+import lander.Episode;
+import lander.Lander;
+import lander.LanderSpecs;
+import lander.LanderState;
+import lander.controller.PiraveenController;
+import planet.Planet;
+
+/**
+   Turns recorded flights into numbered PNG frames for making videos, with
+   no screen - each frame is what the simulation's animation would show at
+   that moment.
+
+   The frames are drawn and encoded on a pool with a thread per core. Only
+   a few frames are ever waiting - when the queue is full the thread handing
+   out frames draws the next one itself, which holds it back until the pool
+   catches up - and each thread draws into one image of its own, so memory
+   stays flat however long the flight.
+*/
+public class FrameExporter
+{
+    private Scene scene;
+    private Dimension size;
+    private BufferedImage background;
+    private ThreadPoolExecutor pool;
+
+    private final ThreadLocal<BufferedImage> canvas = new ThreadLocal<BufferedImage>()
+    {
+        protected BufferedImage initialValue()
+        {
+            return new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        }
+    };
+
+    /**
+     * Export recorded Mars landings as frames
+     *
+     * @param args - -p flights.eps to export (required), -e n for just the nth flight (default all),
+     *               -o directory for the frames (default frames), -f frames per second of flight
+     *               (default 30), -s width height (default 640 600), -g flights.eps to show as ghosts,
+     *               -t threads (default one per core)
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.setProperty("java.awt.headless", "true");
+
+        File episodes = null;
+        File ghosts = null;
+        File directory = new File("frames");
+        int only = 0;
+        double fps = 30.0;
+        Dimension size = new Dimension(640, 600);
+        int threads = Runtime.getRuntime().availableProcessors();
+        for(int i = 0; i < args.length; i++)
+        {
+            if(args[i].equalsIgnoreCase("-p"))
+            {
+                episodes = new File(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-e"))
+            {
+                only = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-o"))
+            {
+                directory = new File(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-f"))
+            {
+                fps = Double.parseDouble(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-s"))
+            {
+                size = new Dimension(Integer.parseInt(args[++i]), Integer.parseInt(args[++i]));
+            }
+            else if(args[i].equalsIgnoreCase("-g"))
+            {
+                ghosts = new File(args[++i]);
+            }
+            else if(args[i].equalsIgnoreCase("-t"))
+            {
+                threads = Integer.parseInt(args[++i]);
+            }
+        }
+        if(episodes == null)
+        {
+            System.out.println("usage: FrameExporter -p flights.eps [-e n] [-o directory] [-f fps] " +
+                    "[-s width height] [-g ghosts.eps] [-t threads]");
+            return;
+        }
+        if(!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("could not make " + directory);
+        }
+
+        Planet mars = Planet.getMars();
+        LanderSpecs specs = LanderSpecs.getMarsLanderSpecs();
+        Lander lander = new Lander(mars, PiraveenController.FACTORY.create(mars, specs), specs, 0);
+        Scene scene = new Scene(lander, mars, Scene.loadMars());
+        if(ghosts != null)
+        {
+            scene.setGhosts(Episode.load(ghosts));
+        }
+
+        List<Episode> flights = Episode.load(episodes);
+        FrameExporter exporter = new FrameExporter(scene, size, threads);
+        try
+        {
+            for(int k = 1; k <= flights.size(); k++)
+            {
+                if(only == 0 || only == k)
+                {
+                    long start = System.nanoTime();
+                    int frames = exporter.export(flights.get(k-1), fps, directory, String.format("flight%04d_", k));
+                    double seconds = (System.nanoTime() - start)/1e9;
+                    System.out.println(String.format("Flight %d: %d frames in %.2f s (%.0f frames/s)",
+                            k, frames, seconds, frames/seconds));
+                }
+            }
+        }
+        finally
+        {
+            exporter.close();
+        }
+    }
+
+    /**
+     * Create an exporter
+     *
+     * @param scene - what to draw - its ghosts must be set already
+     * @param size - of the frames
+     * @param threads - how many frames to draw and encode at once
+     */
+    public FrameExporter(Scene scene, Dimension size, int threads)
+    {
+        this.scene = scene;
+        this.size = new Dimension(size);
+        background = scene.drawBackground(this.size, null);
+
+        final AtomicInteger count = new AtomicInteger();
+        pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(2*threads), new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "frame exporter " + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Write a flight as frames at a steady rate from its first state to its
+     * last, and wait for them all to be written
+     *
+     * @param episode - the flight
+     * @param fps - frames per second of flight
+     * @param directory - where to write them
+     * @param prefix - start of each frame's file name, followed by the frame number from 0
+     * @return number of frames written
+     * @throws IOException if a frame could not be written - anything else that
+     *         goes wrong drawing a frame is thrown as it was
+     * @throws InterruptedException
+     */
+    public int export(Episode episode, double fps, File directory, String prefix)
+            throws IOException, InterruptedException
+    {
+        if(!(fps > 0.0))
+        {
+            throw new IllegalArgumentException("frame rate must be positive");
+        }
+        int frames = (int)Math.floor(episode.getDuration()*fps) + 1;
+        CountDownLatch written = new CountDownLatch(frames);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for(int i = 0; i < frames && failure.get() == null; i++)
+        {
+            LanderState state = episode.getStateAt(episode.getTime(0) + i/fps);
+            File file = new File(directory, String.format("%s%05d.png", prefix, i));
+            pool.execute(new Frame(state, file, written, failure));
+        }
+        if(failure.get() == null)
+        {
+            written.await();
+        }
+        Throwable t = failure.get();
+        if(t instanceof IOException)
+        {
+            throw (IOException)t;
+        }
+        if(t instanceof RuntimeException)
+        {
+            throw (RuntimeException)t;
+        }
+        if(t instanceof Error)
+        {
+            throw (Error)t;
+        }
+        return frames;
+    }
+
+    /**
+     * Stop the threads, once any frames in hand are written
+     */
+    public void close()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * One frame to draw and write
+     */
+    private class Frame implements Runnable
+    {
+        private LanderState state;
+        private File file;
+        private CountDownLatch written;
+        private AtomicReference<Throwable> failure;
+
+        Frame(LanderState state, File file, CountDownLatch written, AtomicReference<Throwable> failure)
+        {
+            this.state = state;
+            this.file = file;
+            this.written = written;
+            this.failure = failure;
+        }
+
+        public void run()
+        {
+            try
+            {
+                BufferedImage image = canvas.get();
+                Graphics2D g = image.createGraphics();
+                try
+                {
+                    g.drawImage(background, 0, 0, null);
+                    scene.draw(g, size, state);
+                }
+                finally
+                {
+                    g.dispose();
+                }
+                if(!ImageIO.write(image, "png", file))
+                {
+                    throw new IOException("no PNG writer for " + file);
+                }
+            }
+            catch(Throwable t)
+            {
+                // kept for export to throw, rather than lost on a pool thread
+                failure.compareAndSet(null, t);
+            }
+            finally
+            {
+                written.countDown();
+            }
+        }
+    }
+}
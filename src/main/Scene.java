@@ -0,0 +1,239 @@
+package main;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import javax.imageio.ImageIO;
+import lander.Episode;
+import lander.Lander;
+import lander.LanderState;
+import planet.Planet;
+
+/**
+   What the animation shows - the photo of Mars with the guide lines and any
+   ghosts, and the lander with the turbulence indicator over it - drawn into
+   any Graphics2D, so the same picture can go to the screen or to images
+   made without one.
+
+   The background only changes with the size or the ghosts, so it is drawn
+   once into an image to be copied under each frame. Once made, a scene and
+   its backgrounds are only read, so frames can be drawn on many threads at
+   once.
+*/
+public class Scene
+{
+    private static final int FROM_BOTTOM = 100;
+    private static final double MAX_HEIGHT = 2000.0;
+    private static final double WIDTH = 200.0; // width of scene in m
+
+    // above this many ghosts, draw how often each pixel was flown through rather than every path
+    private static final int MAX_GHOST_PATHS = 300;
+
+    private static final Stroke dash = new BasicStroke(1.0f, // Width
+                               BasicStroke.CAP_SQUARE,    // End cap
+                               BasicStroke.JOIN_MITER,    // Join style
+                               10.0f,                     // Miter limit
+                               new float[] {4.0f,5.0f}, // Dash pattern
+                               0.0f);
+
+    private Lander lander;
+    private Planet planet;
+    private BufferedImage mars;
+    private List<Episode> ghosts = Collections.emptyList();
+
+    /**
+     * The photo of Mars, from the working directory
+     *
+     * @return the photo
+     * @throws IOException
+     */
+    public static BufferedImage loadMars() throws IOException
+    {
+        URL url = new URL("file:"+System.getProperty("user.dir")+"/1N201070824EFF703FP0695L0M1.jpg");
+        return ImageIO.read(url.openStream());
+    }
+
+    /**
+     * Create a scene
+     *
+     * @param lander - draws the lander and judges where ghosts came down
+     * @param planet - draws the turbulence indicator
+     * @param mars - the photo behind everything
+     */
+    public Scene(Lander lander, Planet planet, BufferedImage mars)
+    {
+        this.lander = lander;
+        this.planet = planet;
+        this.mars = mars;
+    }
+
+    /**
+     * @param ghosts - flights to draw faintly in backgrounds made from now on, none to clear them
+     */
+    public void setGhosts(List<Episode> ghosts)
+    {
+        this.ghosts = ghosts;
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public double screenX(double location, Dimension size)
+    {
+        return size.width*(0.5 + location/WIDTH);
+    }
+
+    public double screenY(double height, Dimension size)
+    {
+        return size.height*(1.0 - height/MAX_HEIGHT) - FROM_BOTTOM;
+    }
+
+    /**
+     * Draw the lander in a state, with the turbulence it felt, over a background
+     *
+     * @param g - where to draw
+     * @param size - of the scene
+     * @param state - the lander's state
+     */
+    public void draw(Graphics2D g, Dimension size, LanderState state)
+    {
+        double x = screenX(state.getLocation(), size);
+        double y = screenY(state.getHeight(), size);
+
+        lander.draw(g, x, y, state);
+        planet.draw(g, x, y, state.getImpulseX(), state.getImpulseY());
+    }
+
+    /**
+     * Scale the photo to the scene once, with the guide lines and ghosts
+     * on top, in an image laid out like the screen so each frame starts
+     * with a plain copy
+     *
+     * @param size - of the scene
+     * @param config - the screen to suit the image to, or null for a plain RGB image
+     * @return the background
+     */
+    public BufferedImage drawBackground(Dimension size, GraphicsConfiguration config)
+    {
+        BufferedImage image = config != null
+                ? config.createCompatibleImage(size.width, size.height, Transparency.OPAQUE)
+                : new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D g2 = image.createGraphics();
+        try
+        {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.drawImage(mars, 0, 0, size.width, size.height, null);
+
+            // draw guide lines
+            g2.setColor(Color.white);
+            g2.setStroke(dash);
+            g2.drawLine(size.width/2, 0, size.width/2, size.height);
+            g2.drawLine(0, size.height-FROM_BOTTOM, size.width, size.height-FROM_BOTTOM);
+
+            if(!ghosts.isEmpty())
+            {
+                drawGhosts(g2, size);
+            }
+        }
+        finally
+        {
+            g2.dispose();
+        }
+        return image;
+    }
+
+    private void drawGhosts(Graphics2D g2, Dimension size)
+    {
+        // every path in screen coordinates, worked out once
+        int[][] xs = new int[ghosts.size()][];
+        int[][] ys = new int[ghosts.size()][];
+        for(int k = 0; k < ghosts.size(); k++)
+        {
+            Episode episode = ghosts.get(k);
+            xs[k] = new int[episode.getLength()];
+            ys[k] = new int[episode.getLength()];
+            for(int i = 0; i < episode.getLength(); i++)
+            {
+                xs[k][i] = (int)Math.round(screenX(episode.getLocation(i), size));
+                ys[k][i] = (int)Math.round(screenY(episode.getHeight(i), size));
+            }
+        }
+
+        g2.setStroke(new BasicStroke(1.0f));
+        if(ghosts.size() <= MAX_GHOST_PATHS)
+        {
+            g2.setColor(new Color(255, 255, 255, Math.min(255, Math.max(24, 255*8/ghosts.size()))));
+            for(int k = 0; k < ghosts.size(); k++)
+            {
+                g2.drawPolyline(xs[k], ys[k], xs[k].length);
+            }
+        }
+        else
+        {
+            g2.drawImage(density(xs, ys, size), 0, 0, null);
+        }
+
+        // where each came down
+        Color safe = new Color(0, 255, 0, 160);
+        Color crashed = new Color(255, 0, 0, 160);
+        for(int k = 0; k < ghosts.size(); k++)
+        {
+            Episode episode = ghosts.get(k);
+            int last = xs[k].length - 1;
+            g2.setColor(lander.hasCrashed(episode.getState(last)) ? crashed : safe);
+            g2.fillRect(xs[k][last] - 1, ys[k][last] - 1, 3, 3);
+        }
+    }
+
+    /**
+     * How many paths crossed each pixel, on a log scale from clear
+     * through orange to white
+     */
+    private BufferedImage density(int[][] xs, int[][] ys, Dimension size)
+    {
+        int width = size.width;
+        int height = size.height;
+        int[] counts = new int[width*height];
+        int most = 0;
+        for(int k = 0; k < xs.length; k++)
+        {
+            for(int i = 1; i < xs[k].length; i++)
+            {
+                // step along the segment a pixel at a time, leaving out its first pixel, which the last segment had
+                int dx = xs[k][i] - xs[k][i-1];
+                int dy = ys[k][i] - ys[k][i-1];
+                int n = Math.max(Math.abs(dx), Math.abs(dy));
+                for(int s = 1; s <= n; s++)
+                {
+                    int x = xs[k][i-1] + (int)Math.round((double)dx*s/n);
+                    int y = ys[k][i-1] + (int)Math.round((double)dy*s/n);
+                    if(x >= 0 && x < width && y >= 0 && y < height)
+                    {
+                        int c = ++counts[y*width + x];
+                        if(c > most) most = c;
+                    }
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[counts.length];
+        double scale = 1.0/Math.log1p(Math.max(1, most));
+        for(int p = 0; p < counts.length; p++)
+        {
+            if(counts[p] > 0)
+            {
+                double t = Math.log1p(counts[p])*scale;
+                int alpha = (int)(80 + 175*t);
+                int green = (int)(96 + 159*t);
+                int blue = (int)(255*t*t);
+                pixels[p] = alpha << 24 | 255 << 16 | green << 8 | blue;
+            }
+        }
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+}
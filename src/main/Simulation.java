@@ -7,16 +7,21 @@ import lander.controller.PiraveenController;
 import lander.controller.Controller;
 import lander.LanderObserver;
 import lander.LanderSpecs;
+import lander.LanderState;
+import lander.LanderClock;
 import lander.Lander;
+import lander.Episode;
 import java.awt.image.BufferedImage;
 
 import java.awt.*;
 import java.awt.event.*;
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import java.text.*;
-import java.net.*;
+import java.io.File;
+import java.util.List;
 
 /**
    A class that presents a GUI for running a simulation of a Mars landing
@@ -30,12 +35,32 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
     private Lander lander;  // the lander that lands
     private LanderSpecs specs; // specifications of the lander
 
-    /* delay between updates - controls apparent speed */
+    /* delay between updates when the lander runs itself - here the clock sets the speed */
     private static final int DELAY = 50;
 
+    /* speeds the lander can be flown at, in seconds flown per second */
+    private static final String[] SPEED_NAMES = {"0.5x", "Real time", "2x", "5x", "10x", "Unlimited"};
+    private static final double[] SPEEDS = {0.5, 1.0, 2.0, 5.0, 10.0, LanderClock.UNLIMITED};
+
+    /* flies the lander against the wall clock, on the shared scheduler */
+    private LanderClock clock;
+
+    /* the display is repainted this often, however fast the lander is stepped */
+    private static final int FRAME_RATE = 60;
+    private Timer renderTimer;
+
+    // the last two states the lander went through - written by the lander's thread, read by the EDT
+    private volatile Published published;
+
+    // the state every panel draws this frame - only touched on the EDT
+    private LanderState frame;
+
     // GUI stuff
     private JButton goButton;
     private JButton pauseButton;
+    private JButton ghostButton;
+    private JButton replayButton;
+    private JComboBox<String> speedBox;
     private AnimPanel animPanel;
     private SpeedYPanel speedYPanel;
     private SpeedYLabel speedYLabel;
@@ -46,12 +71,34 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
     private ThrustPanel thrustPanel;
     private ThrustLabel thrustLabel;
     private JTextArea reportArea;
+
+    // replay of recorded flights instead of flying the lander - only touched on the EDT
+    private static final double MAX_REPLAY_SPEED = 100.0;
+    private List<Episode> replays;
+    private Episode replay;
+    private double replayTime;          // s into the episode
+    private boolean replayPlaying;
+    private long replayTickAt;
+    private boolean movingTimeline;     // set while the timeline is moved to follow the replay
+    private JPanel replayPanel;
+    private JSlider timeline;
+    private JSpinner episodeSpinner;
+    private JLabel timeLabel;
+
     private static NumberFormat format = NumberFormat.getNumberInstance();
     static
     {
         format.setMaximumFractionDigits(2);
     }
     
+    /**
+     * Show the simulation
+     *
+     * @param args - -g flights.eps to show the flights in an episode file as ghosts,
+     *               -p flights.eps to replay them
+     * @throws FuzzyException
+     * @throws IOException
+     */
     public static void main(String[] args) throws FuzzyException, IOException
     {
         JFrame frame = new JFrame("Mars Lander");
@@ -60,6 +107,17 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
         LanderSpecs marsLanderSpecs = LanderSpecs.getMarsLanderSpecs();
         Controller controller = new PiraveenController(mars, marsLanderSpecs);
         final Simulation sim = Simulation.getMarsLanderSimulation(controller);
+        for(int i = 0; i + 1 < args.length; i++)
+        {
+            if(args[i].equalsIgnoreCase("-g"))
+            {
+                sim.setGhosts(Episode.load(new File(args[++i])));
+            }
+            else if(args[i].equalsIgnoreCase("-p"))
+            {
+                sim.replay(Episode.load(new File(args[++i])));
+            }
+        }
 
         frame.getContentPane().add(sim);
 
@@ -92,6 +150,8 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
         this.lander = lander;
         lander.addObserver(this);
 
+        clock = new LanderClock(lander);
+
         // GUI stuff
         setLayout(new BorderLayout());
 
@@ -104,6 +164,16 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
                 pauseButton = new JButton("Pause");
                 pauseButton.addActionListener(this);
                 goPanel.add(pauseButton);
+                ghostButton = new JButton("Ghosts...");
+                ghostButton.addActionListener(this);
+                goPanel.add(ghostButton);
+                replayButton = new JButton("Replay...");
+                replayButton.addActionListener(this);
+                goPanel.add(replayButton);
+                speedBox = new JComboBox<String>(SPEED_NAMES);
+                speedBox.setSelectedIndex(1);
+                speedBox.addActionListener(this);
+                goPanel.add(speedBox);
             controlPanel.add(goPanel);
 
             JPanel readoutPanel = new JPanel(new GridLayout(4, 2));
@@ -142,6 +212,65 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
         animPanel = new AnimPanel();
         add(animPanel, BorderLayout.CENTER);        
+
+        replayPanel = new JPanel(new BorderLayout());
+        replayPanel.setBorder(new BevelBorder(BevelBorder.RAISED));
+            timeline = new JSlider(0, 0, 0);
+            timeline.addChangeListener(new ChangeListener()
+            {
+                public void stateChanged(ChangeEvent e)
+                {
+                    if(!movingTimeline && replay != null)
+                    {
+                        replayTime = timeline.getValue()/1000.0;
+                        showReplay();
+                    }
+                }
+            });
+            replayPanel.add(timeline, BorderLayout.CENTER);
+
+            JPanel episodePanel = new JPanel();
+                episodePanel.add(new JLabel("Episode"));
+                episodeSpinner = new JSpinner(new SpinnerNumberModel(1, 1, 1, 1));
+                episodeSpinner.addChangeListener(new ChangeListener()
+                {
+                    public void stateChanged(ChangeEvent e)
+                    {
+                        if(replays != null)
+                        {
+                            selectReplay((Integer)episodeSpinner.getValue() - 1);
+                        }
+                    }
+                });
+                episodePanel.add(episodeSpinner);
+                timeLabel = new JLabel();
+                episodePanel.add(timeLabel);
+            replayPanel.add(episodePanel, BorderLayout.EAST);
+        replayPanel.setVisible(false);
+        add(replayPanel, BorderLayout.SOUTH);
+
+        publish(lander.getState());
+        frame = published.latest;
+        renderTimer = new Timer(1000/FRAME_RATE, new ActionListener()
+        {
+            public void actionPerformed(ActionEvent e)
+            {
+                if(replay != null)
+                {
+                    advanceReplay();
+                    return;
+                }
+
+                Published shown = published;
+                frame = shown.stateAt(System.nanoTime());
+                repaint();
+                if(frame == shown.latest && frame.isLanded())
+                {
+                    renderTimer.stop();
+                }
+            }
+        });
+        renderTimer.setCoalesce(true);
     }
 
     /**
@@ -163,13 +292,76 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
     /*--------------------------------------------------------------------------*/
 
+    /**
+     * Called by the lander after every step, on the lander's thread - only
+     * publishes the new state, the render timer draws it
+     */
     public void update(boolean finished)
     {
+        publish(lander.getState());
         if(finished)
         {
-            reportArea.setText("Fitness = " + format.format(lander.getFitness()));
+            final double fitness = lander.getFitness();
+            SwingUtilities.invokeLater(new Runnable()
+            {
+                public void run()
+                {
+                    reportArea.setText("Fitness = " + format.format(fitness));
+                }
+            });
+        }
+    }
+
+    /**
+     * Swap in a new pair of states - only ever one thread does this at a time,
+     * the lander's, or the EDT before the lander's thread starts
+     */
+    private void publish(LanderState state)
+    {
+        long now = System.nanoTime();
+        Published last = published;
+        published = last == null
+                ? new Published(state, now, state, now)
+                : new Published(last.latest, last.latestAt, state, now);
+    }
+
+    /**
+     * The last two states and when they were published. Never changed once
+     * made, and handed over through a volatile field, so the EDT always sees
+     * a whole consistent pair without taking a lock.
+     */
+    private static class Published
+    {
+        final LanderState previous;
+        final long previousAt;
+        final LanderState latest;
+        final long latestAt;
+
+        Published(LanderState previous, long previousAt, LanderState latest, long latestAt)
+        {
+            this.previous = previous;
+            this.previousAt = previousAt;
+            this.latest = latest;
+            this.latestAt = latestAt;
+        }
+
+        /**
+         * The state to show at a moment - drawn one step behind the lander,
+         * moving from the state before last to the last over the time the
+         * last step took
+         *
+         * @param now - System.nanoTime()
+         * @return the state
+         */
+        LanderState stateAt(long now)
+        {
+            long interval = latestAt - previousAt;
+            if(interval <= 0 || previous == latest)
+            {
+                return latest;
+            }
+            return LanderState.interpolate(previous, latest, (double)(now - latestAt)/interval);
         }
-        repaint();
     }
 
     /*--------------------------------------------------------------------------*/
@@ -182,13 +374,10 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
         {
             try
             {
-                if(lander.isRunning())
-                {
-                    lander.stop();
-                }
+                leaveReplay();
+                clock.stop();
                 lander.reset();
                 pauseButton.setText("pause");
-                lander.resume();
                 go();
             }
             catch(Exception ex){}
@@ -197,46 +386,195 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
         {
             try
             {
-                if(lander.isPaused())
+                if(replay != null)
+                {
+                    playReplay(!replayPlaying);
+                }
+                else if(clock.isPaused())
                 {
                     pauseButton.setText("pause");
-                    lander.resume();
+                    clock.resume();
                 }
                 else
                 {
                     pauseButton.setText("resume");
-                    lander.pause();
+                    clock.pause();
                 }
             }
             catch(Exception ex){}
         }
+        else if(e.getSource() == speedBox)
+        {
+            clock.setTimeScale(SPEEDS[speedBox.getSelectedIndex()]);
+        }
+        else if(e.getSource() == ghostButton || e.getSource() == replayButton)
+        {
+            JFileChooser chooser = new JFileChooser(System.getProperty("user.dir"));
+            if(chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION)
+            {
+                try
+                {
+                    List<Episode> episodes = Episode.load(chooser.getSelectedFile());
+                    if(e.getSource() == ghostButton)
+                    {
+                        setGhosts(episodes);
+                    }
+                    else
+                    {
+                        replay(episodes);
+                    }
+                }
+                catch(IOException ex)
+                {
+                    JOptionPane.showMessageDialog(this, ex.getMessage(), "Could not load episodes",
+                            JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Stop flying the lander and play back recorded flights instead - the
+     * states come straight from the recording, so neither the controller
+     * nor the physics is run, and the timeline can jump anywhere at once
+     *
+     * @param episodes - the flights, at least one
+     */
+    public void replay(List<Episode> episodes)
+    {
+        if(episodes.isEmpty())
+        {
+            throw new IllegalArgumentException("nothing to replay");
+        }
+        clock.stop();
+        replays = episodes;
+        replayPanel.setVisible(true);
+        revalidate();
+        episodeSpinner.setModel(new SpinnerNumberModel(1, 1, episodes.size(), 1));
+        selectReplay(0);
+    }
+
+    private void selectReplay(int index)
+    {
+        replay = replays.get(index);
+        replayTime = 0.0;
+        movingTimeline = true;
+        timeline.setMaximum((int)Math.ceil(replay.getDuration()*1000.0));
+        movingTimeline = false;
+        showReplay();
+        playReplay(true);
+    }
+
+    private void playReplay(boolean play)
+    {
+        if(play && replayTime >= replay.getDuration())
+        {
+            // start again from the beginning
+            replayTime = 0.0;
+            showReplay();
+        }
+        replayPlaying = play;
+        pauseButton.setText(play ? "pause" : "play");
+        if(play)
+        {
+            replayTickAt = System.nanoTime();
+            renderTimer.start();
+        }
+        else
+        {
+            renderTimer.stop();
+        }
+    }
+
+    /**
+     * Move the replay on by the wall time since the last frame, at the chosen speed
+     */
+    private void advanceReplay()
+    {
+        long now = System.nanoTime();
+        if(replayPlaying)
+        {
+            double speed = Math.min(SPEEDS[speedBox.getSelectedIndex()], MAX_REPLAY_SPEED);
+            replayTime += speed*(now - replayTickAt)/1e9;
+        }
+        replayTickAt = now;
+        if(replayTime >= replay.getDuration())
+        {
+            replayTime = replay.getDuration();
+            playReplay(false);
+        }
+        showReplay();
+    }
+
+    private void showReplay()
+    {
+        frame = replay.getStateAt(replay.getTime(0) + replayTime);
+        movingTimeline = true;
+        timeline.setValue((int)Math.round(replayTime*1000.0));
+        movingTimeline = false;
+        timeLabel.setText(String.format("%.1f / %.1f s", replayTime, replay.getDuration()));
+
+        String report = "Replay " + episodeSpinner.getValue() + " of " + replays.size();
+        if(frame.isLanded())
+        {
+            report += lander.hasCrashed(frame) ? ": crashed" : ": landed safely";
+        }
+        reportArea.setText(report);
+        repaint();
+    }
+
+    private void leaveReplay()
+    {
+        if(replays != null)
+        {
+            replays = null;
+            replay = null;
+            replayPlaying = false;
+            replayPanel.setVisible(false);
+            revalidate();
+        }
+    }
+
+    /**
+     * Show recorded flights behind the lander - as faint paths with a mark
+     * where each came down, or when there are many, as a picture of how
+     * often each spot was flown through
+     *
+     * @param ghosts - the flights, none to clear them
+     */
+    public void setGhosts(List<Episode> ghosts)
+    {
+        animPanel.setGhosts(ghosts);
+        repaint();
     }
 
     public void go()
     {
         reportArea.setText("Fitness = ???");
-        new Thread(lander).start();
+        published = null;
+        publish(lander.getState());
+        frame = published.latest;
+        renderTimer.start();
+        clock.setTimeScale(SPEEDS[speedBox.getSelectedIndex()]);
+        clock.start();
     }
 
     public void stop()
     {
-        lander.stop();
+        clock.stop();
+        renderTimer.stop();
     }
 
     private class AnimPanel extends JPanel
     {
-        private Stroke dash = new BasicStroke(1.0f,           // Width
-                                   BasicStroke.CAP_SQUARE,    // End cap
-                                   BasicStroke.JOIN_MITER,    // Join style
-                                   10.0f,                     // Miter limit
-                                   new float[] {4.0f,5.0f}, // Dash pattern
-                                   0.0f);
-        private BufferedImage mars;
+        private Scene scene;
+        private BufferedImage background;   // the scene's background at the panel's size
 
         public AnimPanel() throws IOException
         {
-            URL url = new URL("file:"+System.getProperty("user.dir")+"/1N201070824EFF703FP0695L0M1.jpg");
-            mars = ImageIO.read(url.openStream());
+            scene = new Scene(lander, planet, Scene.loadMars());
 
             setBorder(new BevelBorder(BevelBorder.RAISED));
             setPreferredSize(new Dimension(640, 600));
@@ -246,30 +584,27 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
         {
             Graphics2D g2 = (Graphics2D)g;
 
-            final int FROM_BOTTOM = 100;
-            final double MAX_HEIGHT = 2000.0;
-            final double WIDTH = 200.0; // width of scene in m
-
             super.paintComponent(g);
 
-            // background image
+            // background image, only drawn again when the size or the ghosts change
             Dimension size = getSize();
-            g2.drawImage(mars, 0, 0, size.width, size.height, null);
-
-            // draw guide lines
-            g2.setColor(Color.white);
-            Stroke old = g2.getStroke();
-            g2.setStroke(dash);
-            g2.drawLine(size.width/2, 0, size.width/2, size.height);
-            g2.drawLine(0, size.height-FROM_BOTTOM, size.width, size.height-FROM_BOTTOM);
-            g2.setStroke(old);
-
-            // where to draw the lander
-            double x = size.width*(0.5 + lander.getLocation()/WIDTH);
-            double y = size.height*(1.0 - lander.getHeight()/MAX_HEIGHT) - FROM_BOTTOM;
-
-            lander.draw(g2, x, y);
-            planet.draw(g2, x, y);
+            if(size.width <= 0 || size.height <= 0)
+            {
+                return;
+            }
+            if(background == null || background.getWidth() != size.width || background.getHeight() != size.height)
+            {
+                background = scene.drawBackground(size, getGraphicsConfiguration());
+            }
+            g2.drawImage(background, 0, 0, null);
+
+            scene.draw(g2, size, frame);
+        }
+
+        void setGhosts(List<Episode> ghosts)
+        {
+            scene.setGhosts(ghosts);
+            background = null;
         }
     }
 
@@ -280,7 +615,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
             super.paintComponent(g);
 
             Graphics2D g2 = (Graphics2D)g;
-            double speed = lander.getSpeedY();
+            double speed = frame.getSpeedY();
             if(speed <= lander.getSafeLandingSpeed())
             {
                 g.setColor(Color.green);
@@ -301,7 +636,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             format.setMaximumFractionDigits(1);
-            g2.drawString(" Down speed: " + format.format(lander.getSpeedY()) + " m/s", 0, getHeight()-5);
+            g2.drawString(" Down speed: " + format.format(frame.getSpeedY()) + " m/s", 0, getHeight()-5);
         }
     }
 
@@ -312,7 +647,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
             super.paintComponent(g);
 
             Graphics2D g2 = (Graphics2D)g;
-            double speed = lander.getSpeedX();
+            double speed = frame.getSpeedX();
             if(speed <= lander.getSafeLandingSpeed())
             {
                 g.setColor(Color.green);
@@ -333,7 +668,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             format.setMaximumFractionDigits(1);
-            g2.drawString(" Side speed: " + format.format(lander.getSpeedX()) + " m/s", 0, getHeight()-5);
+            g2.drawString(" Side speed: " + format.format(frame.getSpeedX()) + " m/s", 0, getHeight()-5);
         }
     }
 
@@ -345,7 +680,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             g.setColor(Color.blue);
-            g.fill3DRect(0, 0, (int)(getWidth()*lander.getFuel()/lander.getMaxFuel()), getHeight(), true);
+            g.fill3DRect(0, 0, (int)(getWidth()*frame.getFuel()/lander.getMaxFuel()), getHeight(), true);
         }
     }
 
@@ -357,7 +692,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             format.setMaximumFractionDigits(1);
-            g2.drawString(" Fuel:  " + format.format(lander.getFuel()) + " kg", 0, getHeight()-5);
+            g2.drawString(" Fuel:  " + format.format(frame.getFuel()) + " kg", 0, getHeight()-5);
         }
     }
 
@@ -369,7 +704,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             g.setColor(Color.blue);
-            g.fill3DRect(0, 0, (int)(getWidth()*lander.getThrustLeft()/lander.getMaxThrust()), getHeight(), true);
+            g.fill3DRect(0, 0, (int)(getWidth()*frame.getThrustLeft()/lander.getMaxThrust()), getHeight(), true);
         }
     }
 
@@ -381,7 +716,7 @@ public class Simulation extends JPanel implements LanderObserver, ActionListener
 
             Graphics2D g2 = (Graphics2D)g;
             format.setMaximumFractionDigits(0);
-            g2.drawString(" Thrust: " + format.format(lander.getThrustLeft()) + " N", 0, getHeight()-5);
+            g2.drawString(" Thrust: " + format.format(frame.getThrustLeft()) + " N", 0, getHeight()-5);
         }
     }
 
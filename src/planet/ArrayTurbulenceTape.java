@@ -0,0 +1,132 @@
+package planet;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+
+/**
+   A turbulence tape held in memory, which can be saved to and loaded from
+   a small file.
+*/
+public class ArrayTurbulenceTape implements TurbulenceTape
+{
+    public static final int MAGIC = 0x54415031; // "TAP1"
+
+    private float[] impulseX;
+    private float[] impulseY;
+
+    /**
+     * Create a tape
+     *
+     * @param impulseX - sideways impulse in N for each step
+     * @param impulseY - vertical impulse in N for each step
+     */
+    public ArrayTurbulenceTape(float[] impulseX, float[] impulseY)
+    {
+        if(impulseX.length != impulseY.length)
+        {
+            throw new IllegalArgumentException("need an x and y impulse for every step");
+        }
+        this.impulseX = impulseX.clone();
+        this.impulseY = impulseY.clone();
+    }
+
+    /**
+     * Record what a planet's random walk does
+     *
+     * @param planet - the planet - its walk is reset first and moved on by steps
+     * @param steps - impulses to record
+     * @return the tape
+     */
+    public static ArrayTurbulenceTape record(Planet planet, int steps)
+    {
+        float[] x = new float[steps];
+        float[] y = new float[steps];
+        planet.reset();
+        for(int i = 0; i < steps; i++)
+        {
+            Point2D.Double impulse = planet.getTurbulentImpulse();
+            x[i] = (float)impulse.x;
+            y[i] = (float)impulse.y;
+        }
+        planet.reset();
+        return new ArrayTurbulenceTape(x, y);
+    }
+
+    /**
+     * Load a tape saved by save
+     *
+     * @param file - the file
+     * @return the tape
+     * @throws IOException
+     */
+    public static ArrayTurbulenceTape load(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try
+        {
+            if(in.readInt() != MAGIC)
+            {
+                throw new IOException(file + " is not a turbulence tape");
+            }
+            int length = in.readInt();
+            if(length < 0)
+            {
+                throw new IOException(file + " has a bad length");
+            }
+            float[] x = new float[length];
+            float[] y = new float[length];
+            for(int i = 0; i < length; i++)
+            {
+                x[i] = in.readFloat();
+                y[i] = in.readFloat();
+            }
+            return new ArrayTurbulenceTape(x, y);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Save the tape in the format load reads
+     *
+     * @param file - where to save it
+     * @throws IOException
+     */
+    public void save(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(impulseX.length);
+            for(int i = 0; i < impulseX.length; i++)
+            {
+                out.writeFloat(impulseX[i]);
+                out.writeFloat(impulseY[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public int getLength()
+    {
+        return impulseX.length;
+    }
+
+    public double getImpulseX(int step)
+    {
+        return impulseX[step];
+    }
+
+    public double getImpulseY(int step)
+    {
+        return impulseY[step];
+    }
+}
@@ -2,6 +2,7 @@ package planet;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.Random;
 
 /**
    A class to describe a planet
@@ -20,6 +21,19 @@ public class Planet
     private double turbulence;     // N
     private Point2D.Double impulse = new Point2D.Double(0.0, 0.0); //N
 
+    // each planet has its own generator so landers on different threads don't contend
+    private Random random = new Random();
+
+    // when set, impulses come from here instead of the random walk
+    private TurbulenceTape tape = null;
+    private int tapeStep = 0;
+
+    // when set, impulses depend on where and when they are asked for
+    private WindField windField = null;
+
+    // when set, the ground is this shape instead of flat at height 0
+    private Terrain terrain = null;
+
     private static Planet mars = null;
 
     /**
@@ -39,6 +53,21 @@ public class Planet
     public void reset()
     {
         impulse.x = impulse.y = 0.0;
+        tapeStep = 0;
+    }
+
+    /**
+     * Take on another planet's turbulence, but not its random numbers
+     *
+     * @param other - the planet to copy
+     */
+    public void copyState(Planet other)
+    {
+        impulse.setLocation(other.impulse);
+        tape = other.tape;
+        tapeStep = other.tapeStep;
+        windField = other.windField;
+        terrain = other.terrain;
     }
 
     /**
@@ -71,10 +100,106 @@ public class Planet
         return viscocity;
     }
 
+    public double getTurbulence()
+    {
+        return turbulence;
+    }
+
+    /**
+     * Seed the turbulence so that runs can be repeated
+     *
+     * @param seed
+     */
+    public void setSeed(long seed)
+    {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Replay a tape instead of making up turbulence. Once the tape runs out
+     * its last impulse is held. The tape starts again from the beginning on
+     * reset.
+     *
+     * @param tape - the tape, or null to go back to the random walk
+     */
+    public void setTurbulenceTape(TurbulenceTape tape)
+    {
+        this.tape = tape;
+        tapeStep = 0;
+    }
+
+    public TurbulenceTape getTurbulenceTape()
+    {
+        return tape;
+    }
+
+    /**
+     * Blow a wind field instead of the random walk. A tape, if set, still
+     * comes first.
+     *
+     * @param windField - the field, or null to go back to the random walk
+     */
+    public void setWindField(WindField windField)
+    {
+        this.windField = windField;
+    }
+
+    public WindField getWindField()
+    {
+        return windField;
+    }
+
+    /**
+     * Give the planet a shaped ground with landing pads. Heights, including
+     * a lander's, are then measured from the datum the terrain is given
+     * against rather than from the ground.
+     *
+     * @param terrain - the ground, or null for flat ground at height 0
+     */
+    public void setTerrain(Terrain terrain)
+    {
+        this.terrain = terrain;
+    }
+
+    public Terrain getTerrain()
+    {
+        return terrain;
+    }
+
+    /**
+     * Turbulence for an object at a given place and time - from the tape if
+     * there is one, otherwise the wind field if there is one, otherwise the
+     * random walk, which ignores where and when
+     *
+     * @param height - height in m
+     * @param location - location in m
+     * @param time - time since the start of the descent in s
+     * @return the impulse in N
+     */
+    public Point2D.Double getTurbulentImpulse(double height, double location, double time)
+    {
+        if(tape == null && windField != null)
+        {
+            windField.getImpulse(height, location, time, impulse);
+            return impulse;
+        }
+        return getTurbulentImpulse();
+    }
+
     public Point2D.Double getTurbulentImpulse()
     {
-        double x = impulse.getX() + turbulence*2.0*(Math.random()-0.5);
-        double y = impulse.getY() + 0.1*turbulence*2.0*(Math.random()-0.5);
+        if(tape != null)
+        {
+            int step = Math.min(tapeStep++, tape.getLength() - 1);
+            if(step >= 0)
+            {
+                impulse.setLocation(tape.getImpulseX(step), tape.getImpulseY(step));
+            }
+            return impulse;
+        }
+
+        double x = impulse.getX() + turbulence*2.0*(random.nextDouble()-0.5);
+        double y = impulse.getY() + 0.1*turbulence*2.0*(random.nextDouble()-0.5);
         
         impulse.setLocation(x, y);
         
@@ -83,14 +208,26 @@ public class Planet
 
     /*--------------------------------------------------------------------------*/
 
-    private static Ellipse2D.Double dot = new Ellipse2D.Double();
-    private static Line2D.Double line = new Line2D.Double();
-
     public void draw(Graphics2D g, double x, double y)
+    {
+        draw(g, x, y, impulse.getX(), impulse.getY());
+    }
+
+    /**
+     * Draw the turbulence indicator for a given impulse rather than the current one -
+     * this only reads the planet, so frames can be drawn on several threads at once
+     *
+     * @param g - where to draw
+     * @param x - centre of the indicator
+     * @param y - ditto
+     * @param impulseX - sideways impulse in N
+     * @param impulseY - vertical impulse in N
+     */
+    public void draw(Graphics2D g, double x, double y, double impulseX, double impulseY)
     {
         final double GAP = 5;
-        double ix = impulse.getX()/turbulence;
-        double iy = impulse.getY()/turbulence;
+        double ix = impulseX/turbulence;
+        double iy = impulseY/turbulence;
         double length = Math.sqrt(ix*ix + iy*iy);
 
         /* draw a HUD indicator of turbulence */
@@ -98,11 +235,9 @@ public class Planet
         g.setColor(Color.green);
         
         final double DOT = 5.0;
-        dot.setFrame(x-DOT/2, y-DOT/2, DOT, DOT);
-        g.fill(dot);
+        g.fill(new Ellipse2D.Double(x-DOT/2, y-DOT/2, DOT, DOT));
 
         final double SCALE = 5.0;
-        line.setLine(x, y, x+ix*SCALE, y+iy*SCALE);
-        g.draw(line);
+        g.draw(new Line2D.Double(x, y, x+ix*SCALE, y+iy*SCALE));
     }
 }
@@ -0,0 +1,310 @@
+package planet;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+   The shape of the ground - heights above the datum at evenly spaced
+   points, joined by straight lines, with flat landing pads at the datum.
+   Outside its range the ground carries on at the height of the nearest
+   end.
+
+   Above the heights sits a pyramid of maxima and minima, each level
+   covering pairs of the one below, so the highest or lowest ground under
+   any stretch can be found in O(log n). A lander can then tell it is
+   nowhere near the ground with one query and only look at the ground
+   under each foot when it is close.
+
+   A terrain never changes once made, so one can be shared by every planet
+   and thread.
+*/
+public class Terrain
+{
+    private double minX;
+    private double spacing;
+    private float[] heights;
+
+    // level 0 has the highest and lowest point of each segment, level k+1 of pairs from level k
+    private float[][] maxPyramid;
+    private float[][] minPyramid;
+
+    // sorted by centre
+    private double[] padCentre;
+    private double[] padHalfWidth;
+
+    /**
+     * Ground for the Mars lander - 4 km across in 1 m steps, rising and
+     * falling by a few tens of m, with pads at -400, 0 and 250 m
+     *
+     * @param seed - seed for the shape of the ground
+     * @return the terrain
+     */
+    public static Terrain getMarsTerrain(long seed)
+    {
+        return generate(-2048.0, 2048.0, 12, 30.0, 0.55,
+                new double[] {-400.0, 0.0, 250.0}, new double[] {15.0, 20.0, 10.0}, 40.0, seed);
+    }
+
+    /**
+     * Make rough ground by midpoint displacement and level it off around
+     * the pads
+     *
+     * @param minX - left end in m
+     * @param maxX - right end in m
+     * @param detail - the ground has 2^detail segments
+     * @param relief - size of the biggest bumps in m
+     * @param roughness - how much smaller each finer level of bumps is, from 0 to 1
+     * @param padCentre - middle of each pad in m
+     * @param padHalfWidth - half the width of each pad in m
+     * @param blend - distance in m over which the ground rises from a pad to its natural height
+     * @param seed - seed for the shape
+     * @return the terrain
+     */
+    public static Terrain generate(double minX, double maxX, int detail, double relief, double roughness,
+            double[] padCentre, double[] padHalfWidth, double blend, long seed)
+    {
+        if(detail < 1 || detail > 24)
+        {
+            throw new IllegalArgumentException("detail must be from 1 to 24");
+        }
+        Random random = new Random(seed);
+        int segments = 1 << detail;
+        float[] heights = new float[segments + 1];
+        heights[0] = (float)(relief*random.nextGaussian());
+        heights[segments] = (float)(relief*random.nextGaussian());
+        double scale = relief;
+        for(int half = segments/2; half >= 1; half /= 2)
+        {
+            for(int i = half; i < segments; i += 2*half)
+            {
+                heights[i] = (float)(0.5*(heights[i - half] + heights[i + half]) + scale*random.nextGaussian());
+            }
+            scale *= roughness;
+        }
+
+        double spacing = (maxX - minX)/segments;
+        for(int i = 0; i <= segments; i++)
+        {
+            double x = minX + i*spacing;
+            double distance = Double.POSITIVE_INFINITY;
+            for(int p = 0; p < padCentre.length; p++)
+            {
+                distance = Math.min(distance, Math.abs(x - padCentre[p]) - padHalfWidth[p]);
+            }
+            if(distance <= 0.0)
+            {
+                heights[i] = 0.0f;
+            }
+            else if(distance < blend)
+            {
+                double f = distance/blend;
+                heights[i] *= (float)(f*f*(3.0 - 2.0*f));
+            }
+        }
+
+        return new Terrain(minX, maxX, heights, padCentre, padHalfWidth);
+    }
+
+    /**
+     * Create a terrain
+     *
+     * @param minX - position of the first height in m
+     * @param maxX - position of the last height in m
+     * @param heights - heights above the datum in m, evenly spaced
+     * @param padCentre - middle of each pad in m
+     * @param padHalfWidth - half the width of each pad in m
+     */
+    public Terrain(double minX, double maxX, float[] heights, double[] padCentre, double[] padHalfWidth)
+    {
+        if(heights.length < 2 || maxX <= minX)
+        {
+            throw new IllegalArgumentException("need at least two heights over a positive width");
+        }
+        if(padCentre.length != padHalfWidth.length)
+        {
+            throw new IllegalArgumentException("need a half width for every pad");
+        }
+
+        this.minX = minX;
+        this.spacing = (maxX - minX)/(heights.length - 1);
+        this.heights = heights.clone();
+
+        // pads in order of centre
+        Integer[] order = new Integer[padCentre.length];
+        for(int p = 0; p < order.length; p++)
+        {
+            order[p] = p;
+        }
+        final double[] centres = padCentre;
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return Double.compare(centres[a], centres[b]);
+            }
+        });
+        this.padCentre = new double[order.length];
+        this.padHalfWidth = new double[order.length];
+        for(int p = 0; p < order.length; p++)
+        {
+            this.padCentre[p] = padCentre[order[p]];
+            this.padHalfWidth[p] = padHalfWidth[order[p]];
+        }
+
+        int levels = 1;
+        for(int size = heights.length - 1; size > 1; size = (size + 1)/2)
+        {
+            levels++;
+        }
+        maxPyramid = new float[levels][];
+        minPyramid = new float[levels][];
+        maxPyramid[0] = new float[heights.length - 1];
+        minPyramid[0] = new float[heights.length - 1];
+        for(int i = 0; i < heights.length - 1; i++)
+        {
+            maxPyramid[0][i] = Math.max(heights[i], heights[i+1]);
+            minPyramid[0][i] = Math.min(heights[i], heights[i+1]);
+        }
+        for(int k = 1; k < levels; k++)
+        {
+            float[] maxBelow = maxPyramid[k-1];
+            float[] minBelow = minPyramid[k-1];
+            int size = (maxBelow.length + 1)/2;
+            maxPyramid[k] = new float[size];
+            minPyramid[k] = new float[size];
+            for(int j = 0; j < size; j++)
+            {
+                int right = Math.min(2*j + 1, maxBelow.length - 1);
+                maxPyramid[k][j] = Math.max(maxBelow[2*j], maxBelow[right]);
+                minPyramid[k][j] = Math.min(minBelow[2*j], minBelow[right]);
+            }
+        }
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public double getMinX()
+    {
+        return minX;
+    }
+
+    public double getMaxX()
+    {
+        return minX + spacing*(heights.length - 1);
+    }
+
+    /**
+     * @param x - position in m
+     * @return height of the ground there in m
+     */
+    public double getHeight(double x)
+    {
+        double g = (x - minX)/spacing;
+        if(!(g > 0.0))
+        {
+            return heights[0];
+        }
+        int i = (int)g;
+        if(i >= heights.length - 1)
+        {
+            return heights[heights.length - 1];
+        }
+        double f = g - i;
+        return heights[i] + (heights[i+1] - heights[i])*f;
+    }
+
+    /**
+     * @param x0 - one end of the stretch in m
+     * @param x1 - the other end in m
+     * @return the highest ground anywhere between them
+     */
+    public double getMaxHeight(double x0, double x1)
+    {
+        return query(maxPyramid, x0, x1, true);
+    }
+
+    /**
+     * @param x0 - one end of the stretch in m
+     * @param x1 - the other end in m
+     * @return the lowest ground anywhere between them
+     */
+    public double getMinHeight(double x0, double x1)
+    {
+        return query(minPyramid, x0, x1, false);
+    }
+
+    private double query(float[][] pyramid, double x0, double x1, boolean highest)
+    {
+        int i0 = segment(Math.min(x0, x1));
+        int i1 = segment(Math.max(x0, x1));
+        double best = highest ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        for(int k = 0; i0 <= i1; k++)
+        {
+            float[] level = pyramid[k];
+            if((i0 & 1) == 1)
+            {
+                best = highest ? Math.max(best, level[i0]) : Math.min(best, level[i0]);
+                i0++;
+            }
+            if((i1 & 1) == 0)
+            {
+                best = highest ? Math.max(best, level[i1]) : Math.min(best, level[i1]);
+                i1--;
+            }
+            i0 >>= 1;
+            i1 >>= 1;
+        }
+        return best;
+    }
+
+    private int segment(double x)
+    {
+        double g = Math.floor((x - minX)/spacing);
+        return (int)Math.max(0, Math.min(heights.length - 2, g));
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public int getPadCount()
+    {
+        return padCentre.length;
+    }
+
+    public double getPadCentre(int pad)
+    {
+        return padCentre[pad];
+    }
+
+    public double getPadHalfWidth(int pad)
+    {
+        return padHalfWidth[pad];
+    }
+
+    /**
+     * @param x - position in m
+     * @return the pad whose centre is nearest, or -1 if there are none
+     */
+    public int getNearestPad(double x)
+    {
+        if(padCentre.length == 0)
+        {
+            return -1;
+        }
+        int i = Arrays.binarySearch(padCentre, x);
+        if(i >= 0)
+        {
+            return i;
+        }
+        int above = -i - 1;
+        if(above == 0)
+        {
+            return 0;
+        }
+        if(above == padCentre.length)
+        {
+            return above - 1;
+        }
+        return x - padCentre[above - 1] <= padCentre[above] - x ? above - 1 : above;
+    }
+}
@@ -0,0 +1,27 @@
+package planet;
+
+
+/**
+   A recorded sequence of turbulent impulses, one for each call a planet
+   gets for its turbulence, so that a descent can be flown again through
+   exactly the same winds.
+*/
+public interface TurbulenceTape
+{
+    /**
+     * @return number of impulses on the tape
+     */
+    public int getLength();
+
+    /**
+     * @param step - which impulse, from 0
+     * @return sideways impulse in N
+     */
+    public double getImpulseX(int step);
+
+    /**
+     * @param step - which impulse, from 0
+     * @return vertical impulse in N
+     */
+    public double getImpulseY(int step);
+}
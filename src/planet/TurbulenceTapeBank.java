@@ -0,0 +1,253 @@
+package planet;
+
+import java.awt.geom.Point2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+   A bank of turbulence tapes generated once and kept in a file, so that
+   controllers can be compared on exactly the same winds on any machine.
+
+   The file is a 32 byte header - magic, version, episodes, steps per
+   episode, the turbulence and the seed it was made with - followed by
+   each episode's impulses as x, y float pairs, big-endian so the file
+   reads the same everywhere. It is mapped read-only and getEpisode hands
+   out tapes that read straight from the mapping, so any number of threads
+   can replay any episode without copying it or running the random number
+   generator. Files bigger than a single mapping are mapped in chunks of
+   whole episodes.
+*/
+public class TurbulenceTapeBank
+{
+    public static final int MAGIC = 0x54424B31; // "TBK1"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+
+    private int episodes;
+    private int steps;
+    private double turbulence;
+    private long seed;
+
+    private int episodesPerChunk;
+    private ByteBuffer[] chunks;
+
+    /**
+     * Make a bank, or print what is in one
+     *
+     * @param args - file, then to make one: episodes, steps per episode, optionally the seed and turbulence in N
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        File file = new File(args[0]);
+        if(args.length > 2)
+        {
+            int episodes = Integer.parseInt(args[1]);
+            int steps = Integer.parseInt(args[2]);
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+            Planet mars = Planet.getMars();
+            double turbulence = args.length > 4 ? Double.parseDouble(args[4]) : mars.getTurbulence();
+
+            long start = System.currentTimeMillis();
+            generate(file, new Planet(mars.getGravity(), mars.getViscocity(), turbulence), episodes, steps, seed);
+            System.out.println("Made " + episodes + " episodes of " + steps + " steps in " +
+                    (System.currentTimeMillis() - start) + " ms");
+        }
+
+        TurbulenceTapeBank bank = open(file);
+        System.out.println(file + ": " + bank.getEpisodes() + " episodes of " + bank.getSteps() +
+                " steps, turbulence " + bank.getTurbulence() + " N, seed " + bank.getSeed());
+    }
+
+    /**
+     * Write a bank of a planet's random walk, each episode seeded from the
+     * bank's seed and its index
+     *
+     * @param file - where to write it
+     * @param planet - the planet whose turbulence to record - its seed is changed
+     * @param episodes - number of episodes
+     * @param steps - impulses in each episode
+     * @param seed - seed for the whole bank
+     * @throws IOException
+     */
+    public static void generate(File file, Planet planet, int episodes, int steps, long seed) throws IOException
+    {
+        if(episodes < 1 || steps < 1)
+        {
+            throw new IllegalArgumentException("need at least one episode and step");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(episodes);
+            out.writeInt(steps);
+            out.writeDouble(planet.getTurbulence());
+            out.writeLong(seed);
+
+            for(int e = 0; e < episodes; e++)
+            {
+                planet.setSeed(episodeSeed(seed, e));
+                planet.reset();
+                for(int s = 0; s < steps; s++)
+                {
+                    Point2D.Double impulse = planet.getTurbulentImpulse();
+                    out.writeFloat((float)impulse.x);
+                    out.writeFloat((float)impulse.y);
+                }
+            }
+            planet.reset();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the seed the random walk of one episode of a bank starts from
+     */
+    public static long episodeSeed(long seed, int episode)
+    {
+        return seed ^ (episode + 1)*0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Map a bank made by generate
+     *
+     * @param file - the file
+     * @return the bank
+     * @throws IOException
+     */
+    public static TurbulenceTapeBank open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if(header.getInt(0) != MAGIC)
+            {
+                throw new IOException(file + " is not a turbulence tape bank");
+            }
+            if(header.getInt(4) != VERSION)
+            {
+                throw new IOException(file + " is version " + header.getInt(4) + ", expected " + VERSION);
+            }
+
+            TurbulenceTapeBank bank = new TurbulenceTapeBank();
+            bank.episodes = header.getInt(8);
+            bank.steps = header.getInt(12);
+            bank.turbulence = header.getDouble(16);
+            bank.seed = header.getLong(24);
+
+            long episodeBytes = 8L*bank.steps;
+            if(bank.episodes < 1 || bank.steps < 1 || episodeBytes > Integer.MAX_VALUE)
+            {
+                throw new IOException(file + " has a bad size");
+            }
+            if(channel.size() < HEADER_BYTES + bank.episodes*episodeBytes)
+            {
+                throw new IOException(file + " is too short for " + bank.episodes + " episodes");
+            }
+
+            bank.episodesPerChunk = (int)Math.min(bank.episodes, Integer.MAX_VALUE/episodeBytes);
+            int chunkCount = (bank.episodes + bank.episodesPerChunk - 1)/bank.episodesPerChunk;
+            bank.chunks = new ByteBuffer[chunkCount];
+            for(int c = 0; c < chunkCount; c++)
+            {
+                long first = (long)c*bank.episodesPerChunk;
+                long count = Math.min(bank.episodesPerChunk, bank.episodes - first);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first*episodeBytes, count*episodeBytes);
+                bank.chunks[c] = chunk.order(ByteOrder.BIG_ENDIAN);
+            }
+            return bank;
+        }
+        finally
+        {
+            // the mappings stay valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private TurbulenceTapeBank()
+    {
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    public int getEpisodes()
+    {
+        return episodes;
+    }
+
+    public int getSteps()
+    {
+        return steps;
+    }
+
+    public double getTurbulence()
+    {
+        return turbulence;
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    /**
+     * A tape that replays one episode straight from the file. It can be
+     * shared between threads.
+     *
+     * @param episode - which episode, from 0
+     * @return the tape
+     */
+    public TurbulenceTape getEpisode(int episode)
+    {
+        if(episode < 0 || episode >= episodes)
+        {
+            throw new IndexOutOfBoundsException("episode " + episode + " of " + episodes);
+        }
+        return new Episode(chunks[episode/episodesPerChunk], (episode%episodesPerChunk)*8*steps, steps);
+    }
+
+    /**
+     * One episode of a bank - reads with absolute gets only, so it never
+     * moves the shared buffer's position
+     */
+    private static class Episode implements TurbulenceTape
+    {
+        private ByteBuffer buffer;
+        private int offset;
+        private int length;
+
+        Episode(ByteBuffer buffer, int offset, int length)
+        {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getLength()
+        {
+            return length;
+        }
+
+        public double getImpulseX(int step)
+        {
+            return buffer.getFloat(offset + 8*step);
+        }
+
+        public double getImpulseY(int step)
+        {
+            return buffer.getFloat(offset + 8*step + 4);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package planet;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+/**
+   Wind that depends on height, sideways position and time, worked out in
+   advance on a grid and looked up by trilinear interpolation, so a lookup
+   costs about the same as a step of the planet's random walk.
+
+   The grid holds the sideways and vertical impulse in N at each point, in
+   one flat float array with the two impulses side by side, then location,
+   then height, then time. Outside the grid the nearest edge is used. A
+   field never changes once made, so one can be shared by every planet and
+   thread.
+*/
+public class WindField
+{
+    private double minHeight;
+    private double heightStep;
+    private int heights;
+    private double minLocation;
+    private double locationStep;
+    private int locations;
+    private double timeStep;
+    private int times;
+
+    private float[] impulse;
+
+    /**
+     * A field for the Mars lander on Mars - 1650 m high, 400 m wide and 30 s
+     * long, with wind about ten times the planet's turbulence
+     *
+     * @param seed - seed for the shear and gusts
+     * @return the field
+     */
+    public static WindField getMarsWindField(long seed)
+    {
+        return generate(1650.0, 200.0, 30.0, 66, 33, 61, 10.0*Planet.getMars().getTurbulence(), seed);
+    }
+
+    /**
+     * Make a field of layered shear plus coherent gusts. The shear is a wind
+     * for each of six layers, blended smoothly between layers; the gusts are
+     * a sum of waves travelling through height, location and time, with
+     * lengths from tens to hundreds of m and periods of a few to twenty s.
+     * Vertical wind is a tenth as strong as sideways, as in the random walk.
+     *
+     * @param maxHeight - top of the grid in m - the bottom is the ground
+     * @param halfWidth - the grid runs from -halfWidth to halfWidth m
+     * @param duration - length of the grid in s
+     * @param heights - grid points for height
+     * @param locations - grid points for location
+     * @param times - grid points for time
+     * @param strength - typical sideways impulse in N
+     * @param seed - seed for the shear and gusts
+     * @return the field
+     */
+    public static WindField generate(double maxHeight, double halfWidth, double duration,
+            int heights, int locations, int times, double strength, long seed)
+    {
+        final int layers = 6;
+        final int modes = 16;
+        Random random = new Random(seed);
+
+        double[] layerWind = new double[layers];
+        for(int k = 0; k < layers; k++)
+        {
+            layerWind[k] = strength*random.nextGaussian();
+        }
+
+        // each gust mode: wavenumbers in height and location, frequency, phase and amplitude for x and y
+        double[][] mode = new double[modes][6];
+        for(int m = 0; m < modes; m++)
+        {
+            mode[m][0] = 2.0*Math.PI/between(random, 50.0, maxHeight);
+            mode[m][1] = 2.0*Math.PI/between(random, 50.0, 400.0)*(random.nextBoolean() ? 1 : -1);
+            mode[m][2] = 2.0*Math.PI/between(random, 2.0, 20.0);
+            mode[m][3] = 2.0*Math.PI*random.nextDouble();
+            mode[m][4] = strength*random.nextGaussian()/Math.sqrt(modes/2.0);
+            mode[m][5] = 0.1*strength*random.nextGaussian()/Math.sqrt(modes/2.0);
+        }
+
+        float[] impulse = new float[2*heights*locations*times];
+        int i = 0;
+        for(int t = 0; t < times; t++)
+        {
+            double time = duration*t/Math.max(1, times - 1);
+            for(int h = 0; h < heights; h++)
+            {
+                double height = maxHeight*h/Math.max(1, heights - 1);
+
+                // smooth blend of the two nearest layers
+                double layer = height/maxHeight*(layers - 1);
+                int below = Math.min((int)layer, layers - 2);
+                double blend = 0.5 - 0.5*Math.cos(Math.PI*(layer - below));
+                double shear = layerWind[below]*(1.0 - blend) + layerWind[below + 1]*blend;
+
+                for(int l = 0; l < locations; l++)
+                {
+                    double location = -halfWidth + 2.0*halfWidth*l/Math.max(1, locations - 1);
+                    double x = shear;
+                    double y = 0.0;
+                    for(int m = 0; m < modes; m++)
+                    {
+                        double wave = Math.sin(mode[m][0]*height + mode[m][1]*location - mode[m][2]*time + mode[m][3]);
+                        x += mode[m][4]*wave;
+                        y += mode[m][5]*wave;
+                    }
+                    impulse[i++] = (float)x;
+                    impulse[i++] = (float)y;
+                }
+            }
+        }
+
+        return new WindField(0.0, maxHeight, heights, -halfWidth, halfWidth, locations, duration, times, impulse);
+    }
+
+    private static double between(Random random, double low, double high)
+    {
+        return low + (high - low)*random.nextDouble();
+    }
+
+    /**
+     * Create a field from a grid
+     *
+     * @param minHeight - height of the first grid point in m
+     * @param maxHeight - height of the last grid point in m
+     * @param heights - grid points for height
+     * @param minLocation - location of the first grid point in m
+     * @param maxLocation - location of the last grid point in m
+     * @param locations - grid points for location
+     * @param duration - time of the last grid point in s - the first is at 0
+     * @param times - grid points for time
+     * @param impulse - x, y impulse in N at each grid point, location fastest, then height, then time
+     */
+    public WindField(double minHeight, double maxHeight, int heights,
+            double minLocation, double maxLocation, int locations,
+            double duration, int times, float[] impulse)
+    {
+        if(heights < 2 || locations < 2 || times < 2)
+        {
+            throw new IllegalArgumentException("every axis needs at least two grid points");
+        }
+        if(impulse.length != 2*heights*locations*times)
+        {
+            throw new IllegalArgumentException("expected " + 2*heights*locations*times + " impulses");
+        }
+
+        this.minHeight = minHeight;
+        this.heightStep = (maxHeight - minHeight)/(heights - 1);
+        this.heights = heights;
+        this.minLocation = minLocation;
+        this.locationStep = (maxLocation - minLocation)/(locations - 1);
+        this.locations = locations;
+        this.timeStep = duration/(times - 1);
+        this.times = times;
+        this.impulse = impulse.clone();
+    }
+
+    /*--------------------------------------------------------------------------*/
+
+    /**
+     * Look the wind up
+     *
+     * @param height - height in m
+     * @param location - location in m
+     * @param time - time since the start of the descent in s
+     * @param result - set to the sideways and vertical impulse in N
+     */
+    public void getImpulse(double height, double location, double time, Point2D.Double result)
+    {
+        double h = clamp((height - minHeight)/heightStep, heights);
+        double l = clamp((location - minLocation)/locationStep, locations);
+        double t = clamp(time/timeStep, times);
+        int h0 = Math.min((int)h, heights - 2);
+        int l0 = Math.min((int)l, locations - 2);
+        int t0 = Math.min((int)t, times - 2);
+        double dh = h - h0;
+        double dl = l - l0;
+        double dt = t - t0;
+
+        int ls = 2;
+        int hs = 2*locations;
+        int ts = 2*locations*heights;
+        int i = t0*ts + h0*hs + l0*ls;
+
+        double x = lerp(lerp(lerp(impulse[i], impulse[i+ls], dl), lerp(impulse[i+hs], impulse[i+hs+ls], dl), dh),
+                lerp(lerp(impulse[i+ts], impulse[i+ts+ls], dl), lerp(impulse[i+ts+hs], impulse[i+ts+hs+ls], dl), dh),
+                dt);
+        i++;
+        double y = lerp(lerp(lerp(impulse[i], impulse[i+ls], dl), lerp(impulse[i+hs], impulse[i+hs+ls], dl), dh),
+                lerp(lerp(impulse[i+ts], impulse[i+ts+ls], dl), lerp(impulse[i+ts+hs], impulse[i+ts+hs+ls], dl), dh),
+                dt);
+        result.setLocation(x, y);
+    }
+
+    private static double clamp(double gridValue, int points)
+    {
+        return Math.max(0.0, Math.min(points - 1, gridValue));
+    }
+
+    private static double lerp(double a, double b, double f)
+    {
+        return a + (b - a)*f;
+    }
+}